@@ -0,0 +1,87 @@
+package visualizer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Timings of a benchmark run (-bench), saved as json so that a later run can be compared to it
+ * as a baseline. Times are in milliseconds, the medians of the repeated runs of each step.
+ */
+public class BenchResult {
+	private static final double MIN_DIFF_MS = 1; // smaller changes are noise, even if the ratio is large
+
+	public String data_dir;
+	public String solution;
+	public String date;
+	public String java_version;
+	public int processors;
+	public int runs;
+	public int scene_cnt;
+	public int box_cnt;
+	public int opened_scenes;
+	public Map<String, Double> times_ms = new LinkedHashMap<>();
+
+	public void add(String step, double ms) {
+		times_ms.put(step, ms);
+	}
+
+	/**
+	 * Appends a table of the steps with their time now and in the baseline to sb. A step is a
+	 * regression if it got slower by more than threshold (0.2 = 20%). Returns the number of
+	 * regressions.
+	 */
+	public int compare(BenchResult base, double threshold, StringBuilder sb) {
+		int regressions = 0;
+		sb.append(String.format("%-16s %12s %12s %8s%n", "step", "baseline ms", "now ms", "change"));
+		for (Map.Entry<String, Double> e: times_ms.entrySet()) {
+			double now = e.getValue();
+			Double then = base.times_ms.get(e.getKey());
+			if (then == null) {
+				sb.append(String.format("%-16s %12s %12.2f%n", e.getKey(), "-", now));
+				continue;
+			}
+			String flag = "";
+			if (now > then * (1 + threshold) && now - then >= MIN_DIFF_MS) {
+				flag = "  REGRESSION";
+				regressions++;
+			}
+			String change = then > 0 ? String.format("%+.1f%%", 100 * (now - then) / then) : "-";
+			sb.append(String.format("%-16s %12.2f %12.2f %8s%s%n", e.getKey(), then, now, change, flag));
+		}
+		if (base.scene_cnt != scene_cnt || base.box_cnt != box_cnt) {
+			sb.append("Note: the baseline was measured on " + base.scene_cnt + " scenes and " + base.box_cnt
+					+ " boxes, now there are " + scene_cnt + " scenes and " + box_cnt + " boxes\n");
+		}
+		return regressions;
+	}
+
+	public void write(File f) throws IOException {
+		Gson gson = new GsonBuilder().setPrettyPrinting().create();
+		try (Writer w = new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8)) {
+			gson.toJson(this, w);
+		}
+	}
+
+	public static BenchResult read(File f) throws IOException {
+		try (Reader r = new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8)) {
+			BenchResult ret = new Gson().fromJson(r, BenchResult.class);
+			if (ret == null || ret.times_ms == null) throw new IOException(f.getPath() + " is not a benchmark result");
+			return ret;
+		}
+		catch (com.google.gson.JsonParseException e) {
+			throw new IOException(f.getPath() + " is not a benchmark result: " + e.getMessage());
+		}
+	}
+}
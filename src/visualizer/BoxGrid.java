@@ -0,0 +1,93 @@
+package visualizer;
+
+import java.util.Arrays;
+
+import visualizer.FmowVisualizer.Box;
+
+/**
+ * Uniform grid over the bounding boxes of an image, so that painting and hit testing only visit
+ * the boxes that intersect the viewport or the cursor. Cells hold box indices in a flat array.
+ */
+public class BoxGrid {
+	private Box[] boxes;
+	private int minX, minY;
+	private int cellW, cellH;
+	private int cols, rows;
+	private int[] cellStart; // cell c holds cellItems[cellStart[c] .. cellStart[c+1]-1]
+	private int[] cellItems;
+	private int[] marks;     // last query that returned a given box, to report each box once
+	private int queryId;
+
+	public BoxGrid(Box[] boxes) {
+		this.boxes = boxes;
+		int n = boxes.length;
+		marks = new int[n];
+		int maxX = 1, maxY = 1;
+		minX = Integer.MAX_VALUE;
+		minY = Integer.MAX_VALUE;
+		for (Box b: boxes) {
+			minX = Math.min(minX, b.box[0]);
+			minY = Math.min(minY, b.box[1]);
+			maxX = Math.max(maxX, b.box[0] + b.box[2]);
+			maxY = Math.max(maxY, b.box[1] + b.box[3]);
+		}
+		if (n == 0) minX = minY = 0;
+		// a few boxes per cell on average
+		int side = Math.max(1, Math.min(256, (int) Math.sqrt(n / 2.0)));
+		cols = rows = side;
+		cellW = Math.max(1, (maxX - minX + cols - 1) / cols);
+		cellH = Math.max(1, (maxY - minY + rows - 1) / rows);
+
+		cellStart = new int[cols * rows + 1];
+		for (Box b: boxes) {
+			int c0 = col(b.box[0]), c1 = col(b.box[0] + b.box[2]);
+			int r0 = row(b.box[1]), r1 = row(b.box[1] + b.box[3]);
+			for (int r = r0; r <= r1; r++) for (int c = c0; c <= c1; c++) cellStart[r * cols + c + 1]++;
+		}
+		for (int i = 0; i < cols * rows; i++) cellStart[i + 1] += cellStart[i];
+		cellItems = new int[cellStart[cols * rows]];
+		int[] fill = Arrays.copyOf(cellStart, cols * rows);
+		for (int i = 0; i < n; i++) {
+			Box b = boxes[i];
+			int c0 = col(b.box[0]), c1 = col(b.box[0] + b.box[2]);
+			int r0 = row(b.box[1]), r1 = row(b.box[1] + b.box[3]);
+			for (int r = r0; r <= r1; r++) for (int c = c0; c <= c1; c++) cellItems[fill[r * cols + c]++] = i;
+		}
+	}
+
+	private int col(double x) {
+		return (int) Math.max(0, Math.min(cols - 1, Math.floor((x - minX) / cellW)));
+	}
+
+	private int row(double y) {
+		return (int) Math.max(0, Math.min(rows - 1, Math.floor((y - minY) / cellH)));
+	}
+
+	/**
+	 * Indices of the boxes intersecting the given rectangle (in image coordinates), in the
+	 * original order of the boxes, so that overlapping boxes are drawn the same way as before.
+	 */
+	public int[] query(double x1, double y1, double x2, double y2) {
+		if (boxes.length == 0) return new int[0];
+		queryId++;
+		int[] ret = new int[16];
+		int cnt = 0;
+		int c0 = col(x1), c1 = col(x2);
+		int r0 = row(y1), r1 = row(y2);
+		for (int r = r0; r <= r1; r++) for (int c = c0; c <= c1; c++) {
+			int cell = r * cols + c;
+			for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+				int i = cellItems[k];
+				if (marks[i] == queryId) continue;
+				marks[i] = queryId;
+				int[] bx = boxes[i].box;
+				if (bx[0] > x2 || bx[0] + bx[2] < x1 || bx[1] > y2 || bx[1] + bx[3] < y1) continue;
+				if (cnt == ret.length) ret = Arrays.copyOf(ret, cnt * 2);
+				ret[cnt++] = i;
+			}
+		}
+		ret = Arrays.copyOf(ret, cnt);
+		Arrays.sort(ret);
+		return ret;
+	}
+}
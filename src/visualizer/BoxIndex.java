@@ -0,0 +1,105 @@
+package visualizer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Box ID index of the TOC: the truth category and TOC line of every box, sorted by box ID. The
+ * file is memory mapped and searched in place, so looking up the boxes of a solution reads only
+ * the pages it touches, not the whole data set (-subset).
+ *
+ * File layout:
+ *   int magic, int category count, [UTF category, int box count]+, int box count,
+ *   [int box ID, int TOC line index, byte category ordinal]+ in box ID order.
+ */
+public class BoxIndex {
+	private static final int MAGIC = 0x424f5831; // BOX1
+	private static final int RECORD_SIZE = 9;
+
+	private String[] categories;
+	private int[] categoryCounts;
+	private int size;
+	private MappedByteBuffer records;
+
+	/**
+	 * Writes the index of n boxes. cats are ordinals in categoryNames, lines are TOC line indices.
+	 */
+	public static void write(File f, String[] categoryNames, int n, int[] boxIds, int[] lines, byte[] cats) throws IOException {
+		long[] order = new long[n]; // box ID in the high half, position in the low half
+		for (int i = 0; i < n; i++) order[i] = ((long) boxIds[i] << 32) | i;
+		Arrays.sort(order);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(categoryNames.length);
+			int[] counts = new int[categoryNames.length];
+			for (int i = 0; i < n; i++) counts[cats[i]]++;
+			for (int c = 0; c < categoryNames.length; c++) {
+				out.writeUTF(categoryNames[c]);
+				out.writeInt(counts[c]);
+			}
+			out.writeInt(n);
+			for (long o: order) {
+				int i = (int) o;
+				out.writeInt(boxIds[i]);
+				out.writeInt(lines[i]);
+				out.writeByte(cats[i]);
+			}
+		}
+	}
+
+	public BoxIndex(File f) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(f, "r"); FileChannel ch = raf.getChannel()) {
+			if (raf.readInt() != MAGIC) throw new IOException("Not a box index file: " + f.getAbsolutePath());
+			categories = new String[raf.readInt()];
+			categoryCounts = new int[categories.length];
+			for (int i = 0; i < categories.length; i++) {
+				categories[i] = raf.readUTF();
+				categoryCounts[i] = raf.readInt();
+			}
+			size = raf.readInt();
+			long start = raf.getFilePointer();
+			if (start + (long) size * RECORD_SIZE > ch.size()) throw new IOException("Truncated box index file: " + f.getAbsolutePath());
+			records = ch.map(FileChannel.MapMode.READ_ONLY, start, (long) size * RECORD_SIZE);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public String[] getCategories() {
+		return categories;
+	}
+
+	// Number of boxes of the category (an index in getCategories()) in the whole data set.
+	public int getBoxCount(int category) {
+		return categoryCounts[category];
+	}
+
+	/**
+	 * Position of the box in the index, or -1 if the data set has no box with this ID.
+	 */
+	public int find(int boxId) {
+		int lo = 0;
+		int hi = size - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int id = records.getInt(mid * RECORD_SIZE);
+			if (id < boxId) lo = mid + 1;
+			else if (id > boxId) hi = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	public int getLine(int pos) {
+		return records.getInt(pos * RECORD_SIZE + 4);
+	}
+}
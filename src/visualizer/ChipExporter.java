@@ -0,0 +1,178 @@
+package visualizer;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import visualizer.FmowVisualizer.Box;
+
+import com.google.gson.Gson;
+
+/**
+ * Cuts an image chip around every bounding box of the loaded scenes (-chips). Only the region of
+ * each box (plus a margin) is decoded, using ImageReadParam.setSourceRegion, and images are
+ * processed on a bounded thread pool. Chips are written to dir/category/boxId.jpg, and listed in
+ * dir/chips.csv.
+ */
+public class ChipExporter {
+	public double margin = 0.25; // context around the box, relative to the box's size on each side
+	public int size = 0;         // if > 0 then chips are resized so that their longer side is this
+	public int threads = Runtime.getRuntime().availableProcessors();
+
+	private DataSource dataSource;
+	private SceneTable scenes;
+	private String[] categoryNames;
+	private String falseDetection;
+	private boolean useMsData;
+	private File dir;
+	private PrintWriter manifest;
+	private AtomicInteger chipCnt = new AtomicInteger();
+	private AtomicInteger imageCnt = new AtomicInteger();
+	private AtomicInteger errorCnt = new AtomicInteger();
+	private Gson gson = new Gson();
+
+	/**
+	 * Writes the chips of all boxes of the scenes into dir. categoryNames is the sorted list of
+	 * categories that box category ordinals refer to. Returns the number of chips written.
+	 */
+	public int export(File dir, DataSource dataSource, SceneTable scenes, String[] categoryNames,
+			String falseDetection, boolean useMsData) throws IOException, InterruptedException {
+		this.dir = dir;
+		this.dataSource = dataSource;
+		this.scenes = scenes;
+		this.categoryNames = categoryNames;
+		this.falseDetection = falseDetection;
+		this.useMsData = useMsData;
+		if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Can't create " + dir.getAbsolutePath());
+		ImageIO.setUseCache(false); // keep the stream cache of region reads in memory
+		manifest = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, "chips.csv")), StandardCharsets.UTF_8));
+		manifest.println("file,box_id,scene_id,t,category,x,y,w,h,chip_w,chip_h");
+
+		// a full queue makes the loop below run the task itself, so pending work stays bounded
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(4 * threads), new ThreadPoolExecutor.CallerRunsPolicy());
+		for (int s = 0; s < scenes.size(); s++) {
+			for (final int t: scenes.getViews(s)) {
+				final int scene = s;
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						exportImage(scene, t);
+					}
+				});
+			}
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		manifest.close();
+		if (errorCnt.get() > 0) System.out.println("  " + errorCnt.get() + " images could not be read");
+		return chipCnt.get();
+	}
+
+	private void exportImage(int scene, int t) {
+		String sceneId = scenes.getId(scene);
+		String base = DataSource.child(scenes.getDir(scene), sceneId + "_" + t + (useMsData ? "_msrgb" : "_rgb"));
+		try {
+			int[] boxes = getBoxes(scene, t, base + ".json");
+			if (boxes.length == 0) return;
+			ImageReader reader = null;
+			try (InputStream in = dataSource.open(base + ".jpg"); ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+				Iterator<ImageReader> it = ImageIO.getImageReaders(iis);
+				if (!it.hasNext()) throw new IOException("No image reader for " + base + ".jpg");
+				reader = it.next();
+				reader.setInput(iis);
+				Rectangle bounds = new Rectangle(reader.getWidth(0), reader.getHeight(0));
+				for (int i = 0; i < boxes.length; i += 6) {
+					int x = boxes[i+2], y = boxes[i+3], w = boxes[i+4], h = boxes[i+5];
+					int mx = (int) Math.round(w * margin);
+					int my = (int) Math.round(h * margin);
+					Rectangle region = new Rectangle(x - mx, y - my, w + 2 * mx, h + 2 * my).intersection(bounds);
+					if (region.isEmpty()) continue;
+					ImageReadParam param = reader.getDefaultReadParam();
+					param.setSourceRegion(region);
+					if (size > 0) {
+						// skip pixels while decoding if the chip is shrunk a lot, but keep 2x for smooth scaling
+						int sub = Math.max(1, Math.max(region.width, region.height) / (2 * size));
+						param.setSourceSubsampling(sub, sub, 0, 0);
+					}
+					BufferedImage chip = reader.read(0, param);
+					if (size > 0) chip = resize(chip);
+					String cat = categoryNames[boxes[i+1]];
+					File catDir = new File(dir, cat);
+					synchronized (this) {
+						if (!catDir.isDirectory() && !catDir.mkdirs()) throw new IOException("Can't create " + catDir.getAbsolutePath());
+					}
+					String name = cat + "/" + boxes[i] + ".jpg";
+					ImageIO.write(chip, "jpg", new File(dir, name));
+					chipCnt.incrementAndGet();
+					synchronized (manifest) {
+						manifest.println(name + "," + boxes[i] + "," + sceneId + "," + t + "," + cat + ","
+								+ region.x + "," + region.y + "," + region.width + "," + region.height + ","
+								+ chip.getWidth() + "," + chip.getHeight());
+					}
+				}
+			}
+			finally {
+				if (reader != null) reader.dispose();
+			}
+		}
+		catch (Exception e) {
+			errorCnt.incrementAndGet();
+			System.out.println("Error extracting chips from " + base + ".jpg : " + e.getMessage());
+		}
+		int n = imageCnt.incrementAndGet();
+		if (n % 1000 == 0) System.out.println("  " + n + " images, " + chipCnt.get() + " chips");
+	}
+
+	// Boxes from the scene table, or from the meta data if the TOC has no geometry for the image.
+	private int[] getBoxes(int scene, int t, String metaPath) throws IOException {
+		if (!Double.isNaN(scenes.getGsd(scene, t))) return scenes.getBoxes(scene, t);
+		MetaData md;
+		try (Reader r = new InputStreamReader(dataSource.open(metaPath), StandardCharsets.UTF_8)) {
+			md = gson.fromJson(r, MetaData.class);
+		}
+		int[] ret = new int[6 * md.bounding_boxes.length];
+		for (int i = 0; i < md.bounding_boxes.length; i++) {
+			Box b = md.bounding_boxes[i];
+			int cat = b.category == null ? -1 : Arrays.binarySearch(categoryNames, b.category);
+			if (cat < 0) cat = Arrays.binarySearch(categoryNames, falseDetection);
+			ret[6*i] = b.ID;
+			ret[6*i+1] = cat;
+			System.arraycopy(b.box, 0, ret, 6*i+2, 4);
+		}
+		return ret;
+	}
+
+	private BufferedImage resize(BufferedImage img) {
+		double f = (double) size / Math.max(img.getWidth(), img.getHeight());
+		int w = Math.max(1, (int) Math.round(img.getWidth() * f));
+		int h = Math.max(1, (int) Math.round(img.getHeight() * f));
+		BufferedImage ret = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = ret.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(img, 0, 0, w, h, null);
+		g.dispose();
+		return ret;
+	}
+}
@@ -0,0 +1,78 @@
+package visualizer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * Where the scene files are read from: a plain folder, a zip archive, a set of tar shards or an
+ * object store over HTTP.
+ * Paths are relative to the root of the data set and use '/' as separator, the root itself is "".
+ */
+public abstract class DataSource implements Closeable {
+
+	/**
+	 * Creates the data source for the -data-dir setting. An http:// or https:// URL is read with range
+	 * requests, using a local block cache of at most cacheLimit bytes in cacheDir (null for a default
+	 * folder). A path ending in .zip is opened as a zip file system, a comma separated list of .tar
+	 * files is read as tar shards, anything else is a folder.
+	 */
+	public static DataSource create(String location, File cacheDir, long cacheLimit) throws IOException {
+		String lower = location.toLowerCase();
+		if (lower.startsWith("http://") || lower.startsWith("https://")) {
+			return new HttpDataSource(location, cacheDir, cacheLimit);
+		}
+		if (lower.endsWith(".zip")) {
+			Path zip = Paths.get(location).toAbsolutePath();
+			URI uri = URI.create("jar:" + zip.toUri());
+			FileSystem fs = FileSystems.newFileSystem(uri, new HashMap<String, Object>());
+			return new PathDataSource(fs.getPath("/"), fs, new File(location));
+		}
+		if (lower.endsWith(".tar")) {
+			String[] parts = location.split(",");
+			File[] shards = new File[parts.length];
+			for (int i = 0; i < parts.length; i++) shards[i] = new File(parts[i].trim());
+			return new TarDataSource(shards);
+		}
+		return new PathDataSource(Paths.get(location), null, null);
+	}
+
+	/** Lists the names (not paths) of the direct children of a folder. */
+	public abstract DirectoryStream<String> list(String dir) throws IOException;
+
+	public abstract boolean isDirectory(String path);
+
+	public abstract boolean exists(String path);
+
+	public abstract InputStream open(String path) throws IOException;
+
+	/**
+	 * Hint that the given files will be read soon, in this order. Remote sources start fetching
+	 * them, the local ones ignore it.
+	 */
+	public void prefetch(Collection<String> paths) {
+	}
+
+	/**
+	 * Files that belong to the data set but are written by this tool (TOC, index), e.g.
+	 * data/toc.txt for a folder and train.zip.toc.txt for an archive.
+	 */
+	public abstract File getSideFile(String name);
+
+	public static String child(String dir, String name) {
+		return dir.isEmpty() ? name : dir + "/" + name;
+	}
+
+	public static String getName(String path) {
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+}
@@ -0,0 +1,166 @@
+package visualizer;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import visualizer.FmowVisualizer.Box;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Writes a synthetic data set in the layout of the fmow-rgb training data
+ * (category/scene/scene_t_msrgb.json + .jpg), together with solution files that have a
+ * given error rate. Used to reproduce performance problems of large data sets offline.
+ */
+public class DatasetGenerator {
+	private static final String[] COUNTRIES = {"USA", "FRA", "BRA", "CHN", "IND", "NGA", "RUS", "AUS", "EGY", "JPN"};
+
+	public int sceneCnt = 1000;
+	public int maxViews = 4;       // temporal views per scene: 1..maxViews
+	public int maxBoxes = 1;       // boxes per image: 1..maxBoxes, all but the first one are random
+	public double skew = 1;        // Zipf exponent of the category distribution, 0 is uniform
+	public double errorRate = 0.2; // share of wrong predictions in the solution files
+	public int imageSize = 512;
+	public long seed = 1;
+	public boolean useMsData = true;
+
+	private FmowVisualizer owner; // needed to create boxes
+	private String falseDetection;
+	private Gson gson = new GsonBuilder().create();
+
+	public DatasetGenerator(FmowVisualizer owner) {
+		this.owner = owner;
+	}
+
+	/**
+	 * Creates the data set in dir/train, and the solution files dir/solution.txt and
+	 * dir/solution-b.txt, which have independent errors.
+	 */
+	public void generate(File dir, String[] categories, String falseDetection) throws IOException {
+		this.falseDetection = falseDetection;
+		Random rnd = new Random(seed);
+		List<String> cats = new ArrayList<>();
+		for (String c: categories) {
+			if (!c.equals(falseDetection)) cats.add(c);
+		}
+		Collections.shuffle(cats, rnd); // which categories are frequent
+		double[] cumulative = new double[cats.size()];
+		double sum = 0;
+		for (int i = 0; i < cumulative.length; i++) {
+			sum += 1 / Math.pow(i + 1, skew);
+			cumulative[i] = sum;
+		}
+
+		File trainDir = new File(dir, "train");
+		if (!trainDir.isDirectory() && !trainDir.mkdirs()) {
+			throw new IOException("Can't create " + trainDir.getAbsolutePath());
+		}
+		PrintWriter solA = openWriter(new File(dir, "solution.txt"));
+		PrintWriter solB = openWriter(new File(dir, "solution-b.txt"));
+		int[] sceneIndex = new int[cats.size()];
+		int boxId = 1;
+		String suffix = useMsData ? "_msrgb" : "_rgb";
+		for (int s = 0; s < sceneCnt; s++) {
+			double r = rnd.nextDouble() * sum;
+			int c = 0;
+			while (cumulative[c] < r) c++;
+			String cat = cats.get(c);
+			String sceneId = cat + "_" + sceneIndex[c]++;
+			File sceneDir = new File(new File(trainDir, cat), sceneId);
+			if (!sceneDir.isDirectory() && !sceneDir.mkdirs()) {
+				throw new IOException("Can't create " + sceneDir.getAbsolutePath());
+			}
+			int views = 1 + rnd.nextInt(maxViews);
+			for (int t = 0; t < views; t++) {
+				MetaData md = createMetaData(rnd);
+				int boxCnt = 1 + rnd.nextInt(maxBoxes);
+				md.bounding_boxes = new Box[boxCnt];
+				for (int b = 0; b < boxCnt; b++) {
+					Box box = owner.new Box();
+					box.ID = boxId++;
+					if (b == 0) box.category = cat;
+					else box.category = rnd.nextInt(3) == 0 ? falseDetection : cats.get(rnd.nextInt(cats.size()));
+					int w = md.img_width / 8 + rnd.nextInt(md.img_width / 2);
+					int h = md.img_height / 8 + rnd.nextInt(md.img_height / 2);
+					box.box = new int[] {rnd.nextInt(md.img_width - w), rnd.nextInt(md.img_height - h), w, h};
+					md.bounding_boxes[b] = box;
+					solA.println(box.ID + "," + guess(box.category, cats, rnd));
+					solB.println(box.ID + "," + guess(box.category, cats, rnd));
+				}
+				String name = sceneId + "_" + t + suffix;
+				md.img_filename = name + ".jpg";
+				writeImage(new File(sceneDir, name + ".jpg"), md, rnd);
+				Writer out = new OutputStreamWriter(new FileOutputStream(new File(sceneDir, name + ".json")), StandardCharsets.UTF_8);
+				gson.toJson(md, out);
+				out.close();
+			}
+		}
+		solA.close();
+		solB.close();
+	}
+
+	private String guess(String truth, List<String> cats, Random rnd) {
+		if (rnd.nextDouble() >= errorRate) return truth;
+		while (true) {
+			String g = rnd.nextInt(10) == 0 ? falseDetection : cats.get(rnd.nextInt(cats.size()));
+			if (!g.equals(truth)) return g;
+		}
+	}
+
+	private MetaData createMetaData(Random rnd) {
+		MetaData md = new MetaData();
+		md.gsd = 0.3 + rnd.nextDouble() * 1.7;
+		md.country_code = COUNTRIES[rnd.nextInt(COUNTRIES.length)];
+		md.timestamp = (2002 + rnd.nextInt(16)) + "-0" + (1 + rnd.nextInt(9)) + "-1" + rnd.nextInt(10) + "T10:30:00Z";
+		md.cloud_cover = rnd.nextInt(4) == 0 ? rnd.nextInt(80) : 0;
+		md.off_nadir_angle_dbl = rnd.nextDouble() * 40;
+		md.img_width = imageSize / 2 + rnd.nextInt(imageSize / 2 + 1);
+		md.img_height = imageSize / 2 + rnd.nextInt(imageSize / 2 + 1);
+		md.scan_direction = rnd.nextBoolean() ? "Forward" : "Reverse";
+		md.sun_azimuth_dbl = rnd.nextDouble() * 360;
+		md.sun_elevation_dbl = 20 + rnd.nextDouble() * 60;
+		md.target_azimuth_dbl = rnd.nextDouble() * 360;
+		md.approximate_wavelengths = new int[] {480, 545, 605};
+		return md;
+	}
+
+	// a smooth background with the boxes drawn a bit lighter, so that they are easy to check visually
+	private void writeImage(File f, MetaData md, Random rnd) throws IOException {
+		int w = md.img_width;
+		int h = md.img_height;
+		BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		int base = rnd.nextInt(80);
+		int[] row = new int[w];
+		for (int j = 0; j < h; j++) {
+			for (int i = 0; i < w; i++) {
+				int v = base + (i * 60 / w) + (j * 60 / h) + rnd.nextInt(16);
+				row[i] = (v << 16) | ((v + 20) << 8) | v;
+			}
+			img.setRGB(0, j, w, 1, row, 0, w);
+		}
+		Graphics2D g = img.createGraphics();
+		g.setColor(new Color(255, 255, 255, 60));
+		for (Box b: md.bounding_boxes) g.fillRect(b.box[0], b.box[1], b.box[2], b.box[3]);
+		g.dispose();
+		ImageIO.write(img, "jpg", f);
+	}
+
+	private static PrintWriter openWriter(File f) throws IOException {
+		return new PrintWriter(new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8));
+	}
+}
@@ -4,6 +4,29 @@
  * 
  * Version history:
  * ================
+ * 1.1 (work in progress)
+ *      - Scene filter and per category limit are applied to folders before reading them
+ *      - TOC index for fast -max-per-cat loading, added -sample-seed
+ *      - Reading data directly from zip or tar files
+ *      - Score breakdown by meta data dimensions (-group-by)
+ *      - Box geometry and gsd stored in the TOC, added 'show meta data' switch
+ *      - Spatial index of boxes for drawing, box under the cursor is shown in the coordinate info
+ *      - Boxes and labels are drawn into a cached layer
+ *      - Panning renders only the newly exposed parts of the view, wheel zoom events are coalesced
+ *      - Added 'preload temporal views' and 'blink temporal views' switches
+ *      - Comparing two solutions (-diff-solution)
+ *      - Synthetic data set generator (-generate)
+ *      - Scenes are stored in a compact table instead of one object per scene
+ *      - The GUI shows scenes while they are being read, with progress
+ *      - Reading data from an object store over HTTP (-data-dir http://...), added -serve
+ *      - Partial scores of data set shards can be saved and merged (-partial-out, -merge)
+ *      - Scene search box
+ *      - Exporting box chips (-chips)
+ *      - Benchmark mode with comparison to a baseline (-bench)
+ *      - Contrast stretch, gamma and color gain controls
+ *      - Scoring a solution while it is being written (-solution-stream)
+ *      - Box ID index in the TOC, scoring solutions of a part of the data set (-subset)
+ *      - Binary solution format (-solution-bin, -solution-text)
  * 1.0 (2017.09.14.)
  *      - First public version at contest launch
  *      - Bugfix: storage_tank category was missing
@@ -27,6 +50,7 @@ package visualizer;
 import static visualizer.Utils.f;
 import static visualizer.Utils.f6;
 
+import java.awt.AlphaComposite;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Container;
@@ -40,6 +64,7 @@ import java.awt.GridBagLayout;
 import java.awt.RenderingHints;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
@@ -48,13 +73,26 @@ import java.awt.event.MouseWheelListener;
 import java.awt.font.FontRenderContext;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.Vector;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -64,8 +102,17 @@ import javax.swing.JCheckBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
+import javax.swing.JSlider;
 import javax.swing.JTextArea;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -76,28 +123,69 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 	private static final String TITLE = "fMoW Visualizer";
 	public static final String ARROW = " \u21d2 ";
 	public static final String TOC_FILE_NAME = "toc.txt";
+	public static final String TOC_INDEX_FILE_NAME = "toc.idx";
+	public static final String BOX_INDEX_FILE_NAME = "toc.boxes";
+	private static final int BENCH_VIEW_W = 1200; // size of the map view in -bench mode
+	private static final int BENCH_VIEW_H = 900;
+	private static final int BENCH_PAN_STEPS = 50; // frames of panning per opened scene
 	
 	private boolean createTOC = false;
-	private PrintWriter tocWriter = null;
 	private boolean hasGui = true;
 	private String dataDir;
+	private DataSource dataSource;
 	private Map<String, Metrics> categoryToScore;
 	private Map<Integer, String> boxIdToCategory;
 	private Map<Integer, String> boxIdToGuess;
 	private Map<Integer, String> boxIdToSceneId;
-	private Map<String, Scene> sceneIdToScene;
-	private Scene[] scenes;
+	private volatile SceneTable scenes; // read by the GUI while it's being filled
 	private Set<String> categorySet; // all known categories
 	private Map<String, Double> categoryWeights; // label->w
-	private Scene currentScene;
+	private String[] categoryNames; // sorted, index is the category ordinal
+	private Map<String, Integer> categoryToOrdinal;
+	private Map<String, Integer> solutionCategoryToOrdinal; // without the alias, solutions have to use the real names
+	private int currentScene = -1; // index in scenes
 	private MapData currentMapData;
+	private int viewScene = -1; // the scene currentMapData belongs to
+	private int currentT; // temporal view id of currentMapData
+	private ImageCache imageCache = new ImageCache();
+	private ExecutorService pixelExecutor; // copies decoded images and counts their histograms
+	private ExecutorService metaDataExecutor = newDaemonPool(1, "meta-data-reader"); // fills the info panel
 	private Box[] currentBoxes;
+	private BoxGrid currentBoxGrid; // spatial index over currentBoxes
 	private double currentGsd;
 	private String solutionPath;
+	private String solutionStreamPath; // solution file that is still being written, or - for stdin
+	private int streamIntervalSec = 10;
+	private int streamTimeoutSec = 60;
+	private boolean subsetScoring = false; // only the boxes of the solution are loaded and scored
+	private String solutionBinPath = null; // if set then -solution is converted to binary format here
+	private String solutionTextPath = null; // if set then -solution is converted to text format here
+	private String diffSolutionPath; // solution to compare to solutionPath
+	private String diffText;
+	private String httpCacheDir = null; // block cache of remote data, null for the default
+	private long httpCacheMb = 2048;
+	private int servePort = 0; // if set then the data folder is served over HTTP
+	private int serveLatencyMs = 0;
+	private String partialOutPath = null; // counts of this run are saved here to be merged later
+	private String mergePaths = null; // comma separated list of partial score files to merge
+	private String chipDir = null; // if set then box chips are written here
+	private ChipExporter chipExporter;
+	private String benchOutPath = null; // if set then a benchmark is run and its timings are written here
+	private String benchBaselinePath = null; // timings of an earlier benchmark to compare to
+	private double benchThreshold = 0.2; // slowdown that counts as a regression
+	private int benchScenes = 20;
+	private int benchRuns = 3;
+	private boolean quiet = false; // no logging while steps are timed
+	private String generateDir = null; // if set then a synthetic data set is written here
+	private DatasetGenerator generator;
 	private int maxNperCategory = Integer.MAX_VALUE;
 	private boolean useMsData = true;
 	private String sceneFilter = null;
 	private Pattern sceneFilterPattern = null;
+	private String groupBy = null; // comma separated list of meta data dimensions
+	private String groupByOutPath = null;
+	private ScoreCube scoreCube;
+	private Long sampleSeed = null; // if set then -max-per-cat picks a random sample of each category
 	private GsonBuilder jsonBuilder;
 	private Gson gson;
 	private boolean writeSolution = false; // TODO false, just for debugging, ignore 
@@ -115,9 +203,30 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 	private JCheckBox showLabelsCb;
 	private JCheckBox showBoxIdsCb;
 	private JCheckBox errorsOnlyCb;
+	private JCheckBox preloadViewsCb;
+	private JCheckBox blinkCb;
+	private Timer blinkTimer;
 	private JLabel xyInfoLabel;
+	private JProgressBar progressBar;
+	private Timer loadTimer; // lists scenes while they are read
+	private volatile String loadPhase = "";
+	private volatile boolean truthLoaded = false;
+	private volatile boolean scored = false; // guesses may be shown
+	private int listedSceneCnt = 0;
+	private JTextField searchField;
+	private Timer searchTimer; // coalesces key strokes
+	private Map<String, int[]> categoryToScenes; // scene indices of each category, in ID order
+	private int[] shownScenes = null; // scene indices listed, in list order, null for all
+	private StringBuffer logText = new StringBuffer(); // everything logged, to restore the log after streaming
 	private JTextArea logArea;
 	private JTextArea infoArea;
+	private JScrollPane infoScrollPane;
+	private JCheckBox showMetaDataCb;
+	private JCheckBox stretchCb;
+	private JSlider gammaSlider; // gamma is 2^(value/50)
+	private JSlider[] gainSliders; // red, green, blue in percent
+	private volatile int[][] lut; // color lookup table of the current image, {red, green, blue}, null if not needed
+	private volatile String currentMetaPath; // read by the meta data reader thread
 	private MapView mapView;
 	private Font font = new Font("SansSerif", Font.BOLD, 16);
 	
@@ -164,6 +273,30 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 		categorySet.add(FALSE_DETECTION);
 		categoryWeights.put(FALSE_DETECTION, 0.0);
 		
+		categoryNames = categorySet.toArray(new String[0]);
+		Arrays.sort(categoryNames);
+		categoryToOrdinal = new HashMap<>();
+		for (int i = 0; i < categoryNames.length; i++) categoryToOrdinal.put(categoryNames[i], i);
+		solutionCategoryToOrdinal = new HashMap<>(categoryToOrdinal);
+		categoryToOrdinal.put(FALSE_DETECTION_ALIAS, categoryToOrdinal.get(FALSE_DETECTION));
+		
+		if (generateDir != null) {
+			log("Generating synthetic data set in " + generateDir + " ...");
+			generator.generate(new File(generateDir), categoryNames, FALSE_DETECTION);
+			log("Done, data is in " + new File(generateDir, "train").getPath());
+			return;
+		}
+		
+		if (mergePaths != null) {
+			mergePartialScores();
+			return;
+		}
+		
+		if (solutionBinPath != null || solutionTextPath != null) {
+			convertSolution();
+			return;
+		}
+		
 		jsonBuilder = new GsonBuilder();
 		jsonBuilder.setPrettyPrinting();
 		gson = jsonBuilder.create();
@@ -172,7 +305,29 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 			sceneFilterPattern = Pattern.compile(sceneFilter);
 		}
 		
-		loadTruth();
+		if (groupBy != null) {
+			ScoreCube.Dimension[] dims = ScoreCube.parseDimensions(groupBy);
+			if (dims == null) {
+				exit("Unknown dimension in -group-by " + groupBy + ", use some of " + ScoreCube.getDimensionNames());
+			}
+			scoreCube = new ScoreCube(dims, categoryNames, categoryWeights);
+		}
+		
+		dataSource = DataSource.create(dataDir, httpCacheDir == null ? null : new File(httpCacheDir), httpCacheMb << 20);
+		if (benchOutPath != null) {
+			runBenchmark();
+			return;
+		}
+		
+		loadPhase = "Reading truth data";
+		if (hasGui) loadTimer.start();
+		if (subsetScoring) {
+			loadSubset();
+		}
+		else {
+			loadTruth();
+		}
+		truthLoaded = true;
 		
 		if (createTOC) {
 			createTOC();
@@ -180,54 +335,26 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 			System.exit(0);
 		}
 		
-		loadSolution();
+		if (chipDir != null) {
+			log("Writing box chips to " + chipDir + " ...");
+			int n = chipExporter.export(new File(chipDir), dataSource, scenes, categoryNames, FALSE_DETECTION, useMsData);
+			log("Done, " + n + " chips written, see " + new File(chipDir, "chips.csv").getPath());
+			return;
+		}
 		
-		// some false_detection box may be still called unknown, unify these
-		for (int b: boxIdToCategory.keySet()) {
-			String cat = boxIdToCategory.get(b);
-			if (cat.equals(FALSE_DETECTION_ALIAS)) boxIdToCategory.put(b, FALSE_DETECTION);
+		loadPhase = "Reading solution";
+		if (solutionStreamPath != null) {
+			streamSolution();
 		}
-		for (int b: boxIdToGuess.keySet()) {
-			String cat = boxIdToGuess.get(b);
-			if (cat.equals(FALSE_DETECTION_ALIAS)) boxIdToGuess.put(b, FALSE_DETECTION);
+		else if (!subsetScoring) { // the subset is defined by the solution, it's already read
+			loadSolution();
 		}
+		loadPhase = "Scoring";
 		
-		categoryToScore = new HashMap<>();
-		if (boxIdToCategory.isEmpty() || boxIdToGuess.isEmpty()) {
+		if (!score()) {
 			log("Nothing to score");
 		}
 		else {
-			for (int boxId: boxIdToCategory.keySet()) {
-				String category = boxIdToCategory.get(boxId);
-				Metrics m = categoryToScore.get(category);
-				if (m == null) {
-					m = new Metrics();
-					categoryToScore.put(category, m);
-				}
-				String guess = boxIdToGuess.get(boxId);
-				if (category.equals(guess)) {
-					m.tp++;
-				}
-				else {
-					m.fn++;
-					Metrics mGuess = categoryToScore.get(guess);
-					if (mGuess == null) {
-						mGuess = new Metrics();
-						categoryToScore.put(guess, mGuess);
-					}
-					mGuess.fp++;
-					
-					String sceneId = boxIdToSceneId.get(boxId);
-					if (sceneId != null) {
-						Scene s = sceneIdToScene.get(sceneId);
-						if (s != null) {
-							s.isError = true;
-							s.guess = guess;
-						}						
-					}
-				}
-			}
-			
 			if (categoryToScore.isEmpty() || 
 					(categoryToScore.size() == 1 && categoryToScore.containsKey(FALSE_DETECTION))) {
 				// can happen if no truth data, everything is UNKNOWN
@@ -236,20 +363,404 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 			else {
 				String scoreText = getScoreText();
 				log(scoreText);
+				if (scoreCube != null) {
+					scoreCube.count(boxIdToCategory, boxIdToGuess);
+					log(scoreCube.getText());
+					if (groupByOutPath != null) {
+						scoreCube.writeCsv(new File(groupByOutPath));
+						log("Score breakdown written to " + groupByOutPath);
+					}
+				}
 			}
 		} // anything to score
 		
+		if (partialOutPath != null) {
+			writePartialScore();
+		}
+		
+		if (diffSolutionPath != null) {
+			if (solutionPath == null) exit("-diff-solution needs a -solution to compare to");
+			diffSolutions();
+		}
+		
 		// the rest is for UI, not needed for scoring
 		if (!hasGui) return;
 		
-		if (categoryToScore.isEmpty()) {
-			errorsOnlyCb.setEnabled(false);
+		scored = true;
+		buildCategoryIndex();
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				loadTimer.stop();
+				progressBar.setVisible(false);
+				controlsPanel.revalidate();
+				errorsOnlyCb.setEnabled(!categoryToScore.isEmpty());
+				searchField.setEnabled(true);
+				// replace the streamed list by the sorted one with error marks
+				logArea.setText(logText.toString());
+				writeImageList(false);
+				logArea.setCaretPosition(0);
+				if (currentScene < 0) {
+					if (scenes.size() == 0) return;
+					currentScene = scenes.getSorted(0);
+					preloadViews(currentScene);
+					loadImage(scenes.getViews(currentScene)[0]);
+				}
+				else if (currentBoxes != null) {
+					setGuesses();
+				}
+				repaintMap();
+			}
+		});
+	}
+	
+	// The category of a scene is the most frequent category of its boxes, as in the TOC. Scene IDs
+	// are searched by prefix in the sorted scene table, this index is for searching by category.
+	private void buildCategoryIndex() {
+		long[] keys = new long[boxIdToSceneId.size()]; // scene index, category ordinal
+		int k = 0;
+		for (Map.Entry<Integer, String> e: boxIdToSceneId.entrySet()) {
+			int s = scenes.find(e.getValue());
+			if (s < 0) continue;
+			keys[k++] = ((long) s << 8) | categoryToOrdinal.get(boxIdToCategory.get(e.getKey()));
 		}
-		writeImageList(false);
-		logArea.setCaretPosition(0);
-		currentScene = scenes[0];
-		loadImage(currentScene.tList.get(0));
-		repaintMap();
+		Arrays.sort(keys, 0, k);
+		int falseDetection = categoryToOrdinal.get(FALSE_DETECTION);
+		byte[] sceneCats = new byte[scenes.size()];
+		Arrays.fill(sceneCats, (byte) falseDetection);
+		int i = 0;
+		while (i < k) {
+			int s = (int) (keys[i] >> 8);
+			int bestCnt = 0;
+			while (i < k && (int) (keys[i] >> 8) == s) {
+				int cat = (int) (keys[i] & 0xff);
+				int j = i;
+				while (j < k && keys[j] == keys[i]) j++;
+				if (j - i > bestCnt) { // ties go to the alphabetically first category
+					bestCnt = j - i;
+					sceneCats[s] = (byte) cat;
+				}
+				i = j;
+			}
+		}
+		int[] counts = new int[categoryNames.length];
+		for (byte c: sceneCats) counts[c]++;
+		int[][] lists = new int[categoryNames.length][];
+		for (int c = 0; c < lists.length; c++) lists[c] = new int[counts[c]];
+		Arrays.fill(counts, 0);
+		for (int pos = 0; pos < scenes.size(); pos++) {
+			int s = scenes.getSorted(pos);
+			int c = sceneCats[s];
+			lists[c][counts[c]++] = s;
+		}
+		Map<String, int[]> index = new HashMap<>();
+		for (int c = 0; c < lists.length; c++) index.put(categoryNames[c], lists[c]);
+		categoryToScenes = index;
+	}
+	
+	// Narrows the list to the scenes of a category if the text is a category name, to the
+	// scenes whose ID starts with the text otherwise.
+	private void searchScenes() {
+		String text = searchField.getText().trim();
+		if (text.isEmpty()) {
+			shownScenes = null;
+		}
+		else if (categoryToScenes.containsKey(text)) {
+			shownScenes = categoryToScenes.get(text);
+		}
+		else {
+			int[] range = scenes.getPrefixRange(text);
+			shownScenes = new int[range[1] - range[0]];
+			for (int i = 0; i < shownScenes.length; i++) shownScenes[i] = scenes.getSorted(range[0] + i);
+		}
+		refreshLogArea(errorsOnlyCb.isSelected());
+	}
+	
+	// Called by loadTimer while data is read: appends the scenes found since the last call to the
+	// list, opens the first one as soon as it's there, and shows progress.
+	private void streamScenes() {
+		SceneTable table = scenes;
+		if (table == null) return;
+		progressBar.setString(loadPhase + ", " + table.size() + " scenes");
+		// the last scene may still get more temporal views
+		int n = truthLoaded ? table.size() : table.size() - 1;
+		n = Math.min(n, listedSceneCnt + 10000);
+		StringBuilder sb = new StringBuilder();
+		if (listedSceneCnt == 0) sb.append("\n========\n Images\n========\n");
+		for (int s = listedSceneCnt; s < n; s++) {
+			sb.append("   ").append(table.getId(s));
+			for (int t: table.getViews(s)) sb.append(" _").append(t);
+			sb.append("\n");
+		}
+		if (n > listedSceneCnt) {
+			listedSceneCnt = n;
+			logArea.append(sb.toString());
+		}
+		if (currentScene < 0 && listedSceneCnt > 0) {
+			currentScene = 0;
+			preloadViews(currentScene);
+			loadImage(table.getViews(currentScene)[0]);
+			repaintMap();
+		}
+	}
+	
+	// The sorted arrays of a box ID -> category map.
+	private Solution toSolution(Map<Integer, String> boxIdToCat) {
+		int n = boxIdToCat.size();
+		int[] ids = new int[n];
+		byte[] cats = new byte[n];
+		int k = 0;
+		for (Map.Entry<Integer, String> e: boxIdToCat.entrySet()) {
+			ids[k] = e.getKey();
+			cats[k] = (byte) (int) categoryToOrdinal.get(e.getValue());
+			k++;
+		}
+		return Solution.sorted(ids, cats, n);
+	}
+	
+	// Compares two solutions box by box against truth, in a single merge pass over the sorted ID arrays.
+	private void diffSolutions() {
+		Solution b = null;
+		try {
+			log("Reading solution data from " + diffSolutionPath + " ...");
+			b = Solution.read(diffSolutionPath, solutionCategoryToOrdinal);
+		}
+		catch (IOException e) {
+			exit(e.getMessage());
+		}
+		Solution a = toSolution(boxIdToGuess); // already read by loadSolution()
+		Solution truth = toSolution(boxIdToCategory);
+
+		int nCat = categoryNames.length;
+		int[][] counts = new int[nCat][4]; // both right, A only right, B only right, both wrong
+		int disagreeCnt = 0;
+		int ia = 0;
+		int ib = 0;
+		for (int i = 0; i < truth.ids.length; i++) {
+			int id = truth.ids[i];
+			int cat = truth.cats[i];
+			while (ia < a.ids.length && a.ids[ia] < id) ia++;
+			while (ib < b.ids.length && b.ids[ib] < id) ib++;
+			int guessA = ia < a.ids.length && a.ids[ia] == id ? a.cats[ia] : -1;
+			int guessB = ib < b.ids.length && b.ids[ib] == id ? b.cats[ib] : -1;
+			boolean rightA = guessA == cat;
+			boolean rightB = guessB == cat;
+			counts[cat][rightA ? (rightB ? 0 : 1) : (rightB ? 2 : 3)]++;
+			if (guessA != guessB) {
+				disagreeCnt++;
+				String sceneId = boxIdToSceneId.get(id);
+				int s = sceneId == null ? -1 : scenes.find(sceneId);
+				if (s >= 0 && scenes.getDiff(s) == null) {
+					scenes.setDiff(s, "A: " + (guessA < 0 ? "-" : categoryNames[guessA])
+							+ ", B: " + (guessB < 0 ? "-" : categoryNames[guessB]));
+				}
+			}
+		}
+
+		int[] total = new int[4];
+		for (int[] c: counts) for (int j = 0; j < 4; j++) total[j] += c[j];
+		StringBuilder sb = new StringBuilder();
+		sb.append("\nSolution diff, A: " + solutionPath + ", B: " + diffSolutionPath).append("\n");
+		sb.append("  Both right: " + total[0] + "; A only right: " + total[1] + "; B only right: " + total[2]
+				+ "; both wrong: " + total[3] + "; different predictions: " + disagreeCnt).append("\n");
+		sb.append("  " + pad("--category--", 16) + "A only; B only; swing (B - A)").append("\n");
+		for (int c = 0; c < nCat; c++) {
+			if (counts[c][1] == 0 && counts[c][2] == 0) continue;
+			sb.append("  ").append(pad(categoryNames[c], 16))
+				.append(counts[c][1]).append("; ")
+				.append(counts[c][2]).append("; ")
+				.append(counts[c][2] - counts[c][1]).append("\n");
+		}
+		diffText = sb.toString();
+		log(diffText);
+	}
+
+	// Times a scripted session (-bench): loading the truth, reading and scoring the solution, and
+	// opening and panning the first scenes of the list, painted into an image instead of a screen.
+	private void runBenchmark() throws Exception {
+		BenchResult r = new BenchResult();
+		r.data_dir = dataDir;
+		r.solution = solutionPath;
+		r.date = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new java.util.Date());
+		r.java_version = System.getProperty("java.version");
+		r.processors = Runtime.getRuntime().availableProcessors();
+		r.runs = benchRuns;
+		log("Running benchmark on " + dataDir + " ...");
+		
+		Callable<Void> loadTruthStep = new Callable<Void>() {
+			@Override
+			public Void call() {
+				loadTruth();
+				return null;
+			}
+		};
+		quiet = true;
+		if (dataSource.getSideFile(TOC_FILE_NAME).exists()) {
+			r.add("toc_load_cold", time(1, loadTruthStep)); // the first load, caches and JIT are cold
+			r.add("toc_load_warm", time(benchRuns, loadTruthStep));
+		}
+		if (!(dataSource instanceof HttpDataSource)) { // object stores can't be listed
+			createTOC = true; // makes loadTruth read the folders
+			r.add("full_scan", time(benchRuns, loadTruthStep));
+			createTOC = false;
+		}
+		loadTruth();
+		r.scene_cnt = scenes.size();
+		r.box_cnt = boxIdToCategory.size();
+		
+		if (solutionPath != null) {
+			r.add("solution_parse", time(benchRuns, new Callable<Void>() {
+				@Override
+				public Void call() {
+					loadSolution();
+					return null;
+				}
+			}));
+			r.add("scoring", time(benchRuns, new Callable<Void>() {
+				@Override
+				public Void call() {
+					score();
+					return null;
+				}
+			}));
+			scored = true;
+		}
+		quiet = false;
+		
+		// the parts of the GUI that opening a scene needs, without a frame
+		mapView = new MapView();
+		mapView.setSize(BENCH_VIEW_W, BENCH_VIEW_H);
+		showBoxesCb = new JCheckBox();
+		showBoxesCb.setSelected(true);
+		showLabelsCb = new JCheckBox();
+		showLabelsCb.setSelected(true);
+		showBoxIdsCb = new JCheckBox();
+		showBoxIdsCb.setSelected(true);
+		preloadViewsCb = new JCheckBox(); // off, so that opening includes reading the image
+		showMetaDataCb = new JCheckBox(); // off, reading the meta data in the background would compete with the timed steps
+		infoArea = new JTextArea();
+		BufferedImage screen = new BufferedImage(BENCH_VIEW_W, BENCH_VIEW_H, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = screen.createGraphics();
+		
+		long openNs = 0;
+		long panNs = 0;
+		int opened = 0;
+		for (int i = 0; i < scenes.size() && opened < benchScenes; i++) {
+			int s = scenes.getSorted(i);
+			int[] views = scenes.getViews(s);
+			if (views.length == 0) continue;
+			currentScene = s;
+			long t0 = System.nanoTime();
+			loadImage(views[0]);
+			mapView.paint(g);
+			long t1 = System.nanoTime();
+			// drag the image around in a circle, as mouseDragged does
+			for (int k = 0; k < BENCH_PAN_STEPS; k++) {
+				double a = 2 * Math.PI * k / BENCH_PAN_STEPS;
+				x0 += Math.round(10 * Math.cos(a));
+				y0 += Math.round(10 * Math.sin(a));
+				mapView.paint(g);
+			}
+			long t2 = System.nanoTime();
+			openNs += t1 - t0;
+			panNs += t2 - t1;
+			opened++;
+		}
+		g.dispose();
+		r.opened_scenes = opened;
+		if (opened > 0) {
+			r.add("open_scene", openNs / 1e6 / opened);
+			r.add("pan_frame", panNs / 1e6 / opened / BENCH_PAN_STEPS);
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		int regressions = 0;
+		if (benchBaselinePath != null) {
+			BenchResult base = null;
+			try {
+				base = BenchResult.read(new File(benchBaselinePath));
+			}
+			catch (IOException e) {
+				exit("Can't read benchmark baseline " + benchBaselinePath + " : " + e.getMessage());
+			}
+			sb.append("Compared to " + benchBaselinePath + " (" + base.date + "):\n");
+			regressions = r.compare(base, benchThreshold, sb);
+		}
+		else {
+			for (Map.Entry<String, Double> e: r.times_ms.entrySet()) {
+				sb.append(String.format("%-16s %12.2f ms%n", e.getKey(), e.getValue()));
+			}
+		}
+		log(r.scene_cnt + " scenes, " + r.box_cnt + " boxes, " + opened + " scenes opened, median of " + benchRuns + " runs");
+		log(sb.toString());
+		try {
+			r.write(new File(benchOutPath));
+			log("Benchmark result written to " + benchOutPath);
+		}
+		catch (IOException e) {
+			exit("Can't write benchmark result to " + benchOutPath + " : " + e.getMessage());
+		}
+		if (regressions > 0) {
+			exit(regressions + " steps are more than " + Math.round(100 * benchThreshold) + "% slower than the baseline");
+		}
+	}
+	
+	// Median time of the runs of step, in milliseconds.
+	private static double time(int runs, Callable<?> step) throws Exception {
+		double[] ms = new double[Math.max(1, runs)];
+		for (int i = 0; i < ms.length; i++) {
+			System.gc(); // don't let garbage of the previous run be collected in this one
+			long t0 = System.nanoTime();
+			step.call();
+			ms[i] = (System.nanoTime() - t0) / 1e6;
+		}
+		Arrays.sort(ms);
+		return ms[ms.length / 2];
+	}
+	
+	// Counts TP, FP and FN per category in categoryToScore and marks the scenes with error, false if there is nothing to score.
+	private boolean score() {
+		// some false_detection box may be still called unknown, unify these
+		for (int b: boxIdToCategory.keySet()) {
+			String cat = boxIdToCategory.get(b);
+			if (cat.equals(FALSE_DETECTION_ALIAS)) boxIdToCategory.put(b, FALSE_DETECTION);
+		}
+		for (int b: boxIdToGuess.keySet()) {
+			String cat = boxIdToGuess.get(b);
+			if (cat.equals(FALSE_DETECTION_ALIAS)) boxIdToGuess.put(b, FALSE_DETECTION);
+		}
+		
+		categoryToScore = new HashMap<>();
+		if (boxIdToCategory.isEmpty() || boxIdToGuess.isEmpty()) return false;
+		
+		for (int boxId: boxIdToCategory.keySet()) {
+			String category = boxIdToCategory.get(boxId);
+			Metrics m = categoryToScore.get(category);
+			if (m == null) {
+				m = new Metrics();
+				categoryToScore.put(category, m);
+			}
+			String guess = boxIdToGuess.get(boxId);
+			if (category.equals(guess)) {
+				m.tp++;
+			}
+			else {
+				m.fn++;
+				Metrics mGuess = categoryToScore.get(guess);
+				if (mGuess == null) {
+					mGuess = new Metrics();
+					categoryToScore.put(guess, mGuess);
+				}
+				mGuess.fp++;
+				
+				String sceneId = boxIdToSceneId.get(boxId);
+				if (sceneId != null) {
+					int s = scenes.find(sceneId);
+					if (s >= 0) scenes.setError(s, guess);						
+				}
+			}
+		}
+		return true;
 	}
 	
 	private void createTOC() {
@@ -265,52 +776,123 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 				ids.add(boxId);
 			}
 			
-			String dataDirPath = new File(dataDir).getCanonicalPath();
-			int len = dataDirPath.length();
-			tocWriter = new PrintWriter(new BufferedWriter(new FileWriter(new File(dataDir, TOC_FILE_NAME))));
-			for (Scene scene: scenes) {
-				StringBuilder sb = new StringBuilder();
-				// sceneId<tab>local_path<tab>tmpid1;tmpid2;...<tab>[boxid1;category1<tab>]+
-				
-				sb.append(scene.id);
-				String path = scene.dir.getCanonicalPath().substring(len);
-				sb.append("\t").append(path);
-				
-				sb.append("\t");
-				for (int tmpid: scene.tList) {
-					sb.append(tmpid).append(";");
+			// group scenes by category so that each category is a contiguous run of lines in the TOC
+			Map<String, List<Integer>> categoryToScenes = new TreeMap<>();
+			for (int i = 0; i < scenes.size(); i++) {
+				int scene = scenes.getSorted(i);
+				List<String> boxCats = new Vector<>();
+				Set<Integer> ids = sceneIdToBoxIds.get(scenes.getId(scene));
+				if (ids != null) {
+					for (int id: ids) boxCats.add(boxIdToCategory.get(id));
 				}
-				
-				Set<Integer> ids = sceneIdToBoxIds.get(scene.id);
-				for (int id: ids) {
-					sb.append("\t").append(id).append(";").append(boxIdToCategory.get(id));
+				String cat = getSceneCategory(boxCats);
+				List<Integer> list = categoryToScenes.get(cat);
+				if (list == null) {
+					list = new Vector<>();
+					categoryToScenes.put(cat, list);
+				}
+				list.add(scene);
+			}
+			
+			Map<String, int[]> categoryToRange = new LinkedHashMap<>();
+			long[] lineOffsets = new long[scenes.size() + 1];
+			// box ID -> TOC line and category, see BoxIndex
+			int boxCnt = 0;
+			int[] boxIds = new int[1024];
+			int[] boxLines = new int[1024];
+			byte[] boxCats = new byte[1024];
+			int lineIndex = 0;
+			long offset = 0;
+			OutputStream tocOut = new BufferedOutputStream(new FileOutputStream(dataSource.getSideFile(TOC_FILE_NAME)));
+			for (String cat: categoryToScenes.keySet()) {
+				List<Integer> list = categoryToScenes.get(cat);
+				categoryToRange.put(cat, new int[] {lineIndex, list.size()});
+				for (int scene: list) {
+					StringBuilder sb = new StringBuilder();
+					// sceneId<tab>local_path<tab>tmpid1:gsd1;tmpid2:gsd2;...<tab>[boxid1;category1;tmpid;x,y,w,h<tab>]+
+					
+					sb.append(scenes.getId(scene));
+					sb.append("\t/").append(scenes.getDir(scene));
+					
+					sb.append("\t");
+					int[] tList = scenes.getViews(scene);
+					for (int tmpid: tList) {
+						sb.append(tmpid).append(":").append(scenes.getGsd(scene, tmpid)).append(";");
+					}
+					
+					for (int tmpid: tList) {
+						int[] boxes = scenes.getBoxes(scene, tmpid);
+						for (int b = 0; b < boxes.length; b += 6) {
+							if (boxCnt == boxIds.length) {
+								boxIds = Arrays.copyOf(boxIds, 2 * boxCnt);
+								boxLines = Arrays.copyOf(boxLines, 2 * boxCnt);
+								boxCats = Arrays.copyOf(boxCats, 2 * boxCnt);
+							}
+							boxIds[boxCnt] = boxes[b];
+							boxLines[boxCnt] = lineIndex;
+							boxCats[boxCnt++] = (byte) getCategoryOrdinal(boxIdToCategory.get(boxes[b]));
+							sb.append("\t").append(boxes[b]).append(";").append(boxIdToCategory.get(boxes[b]))
+								.append(";").append(tmpid).append(";")
+								.append(boxes[b+2]).append(",").append(boxes[b+3]).append(",")
+								.append(boxes[b+4]).append(",").append(boxes[b+5]);
+						}
+					}
+					sb.append("\n");
+					byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+					tocOut.write(bytes);
+					lineOffsets[lineIndex++] = offset;
+					offset += bytes.length;
 				}
-				sb.append("\n");
-				tocWriter.print(sb.toString());
 			}
-			tocWriter.close();			
+			lineOffsets[lineIndex] = offset;
+			tocOut.close();
+			TocIndex.write(dataSource.getSideFile(TOC_INDEX_FILE_NAME), categoryToRange, lineOffsets);
+			BoxIndex.write(dataSource.getSideFile(BOX_INDEX_FILE_NAME), categoryNames, boxCnt, boxIds, boxLines, boxCats);
 		}
 		catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
+	
+	// The category a scene is listed under in the TOC: the most frequent category of its boxes,
+	// ties broken alphabetically. Scenes without boxes go to false_detection.
+	private String getSceneCategory(List<String> boxCategories) {
+		Map<String, Integer> counts = new TreeMap<>();
+		for (String cat: boxCategories) {
+			Integer cnt = counts.get(cat);
+			counts.put(cat, cnt == null ? 1 : cnt + 1);
+		}
+		String best = FALSE_DETECTION;
+		int bestCnt = 0;
+		for (String cat: counts.keySet()) {
+			if (counts.get(cat) > bestCnt) {
+				bestCnt = counts.get(cat);
+				best = cat;
+			}
+		}
+		return best;
+	}
 
-	private String getScoreText() {
-		String[] categories = categoryToScore.keySet().toArray(new String[0]);
-		Arrays.sort(categories);
-		
-		StringBuilder sb = new StringBuilder();
+	// Weighted average of the F-scores in categoryToScore.
+	private double getOverallFScore() {
 		double fSum = 0;
 		double wSum = 0;
-		for (String cat: categories) {
-			Metrics m = categoryToScore.get(cat);
+		for (Map.Entry<String, Metrics> e: categoryToScore.entrySet()) {
+			Metrics m = e.getValue();
 			m.calculate();
-			double w = categoryWeights.get(cat);
+			double w = categoryWeights.get(e.getKey());
 			fSum += m.fScore * w;
 			wSum += w;
 		}
-		double f = 0;
-		if (wSum > 0) f = fSum / wSum;
+		return wSum > 0 ? fSum / wSum : 0;
+	}
+	
+	private String getScoreText() {
+		String[] categories = categoryToScore.keySet().toArray(new String[0]);
+		Arrays.sort(categories);
+		
+		StringBuilder sb = new StringBuilder();
+		double f = getOverallFScore();
 		sb.append("\nOverall F-score : " + f6(f)).append("\n");
 		
 		sb.append("  " + pad("--category--", 16) + "F-score; TP; FP; FN; precision; recall; weight").append("\n");
@@ -328,6 +910,75 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 		return sb.toString();
 	}
 
+	private void writePartialScore() {
+		PartialScore p = new PartialScore();
+		p.boxCnt = boxIdToCategory.size();
+		for (Map.Entry<String, Metrics> e: categoryToScore.entrySet()) {
+			Metrics m = e.getValue();
+			p.add(e.getKey(), m.tp, m.fp, m.fn);
+		}
+		for (int s = 0; s < scenes.size(); s++) {
+			if (scenes.isError(s)) p.errorScenes.add(scenes.getId(s));
+		}
+		try {
+			p.write(new File(partialOutPath));
+			log("Partial score written to " + partialOutPath);
+		}
+		catch (IOException e) {
+			exit("Can't write partial score to " + partialOutPath + " : " + e.getMessage());
+		}
+	}
+	
+	// Writes -solution (text or binary) in the other format. The lines of the text output are in box ID order.
+	private void convertSolution() {
+		if (solutionPath == null) exit("Converting needs a -solution");
+		String outPath = solutionBinPath != null ? solutionBinPath : solutionTextPath;
+		try {
+			Solution sol = Solution.read(solutionPath, solutionCategoryToOrdinal);
+			if (solutionBinPath != null) sol.writeBinary(solutionBinPath, categoryNames);
+			else sol.writeText(solutionTextPath, categoryNames);
+			log(sol.size() + " predictions of " + solutionPath + " written to " + outPath);
+		}
+		catch (IOException e) {
+			exit("Can't convert " + solutionPath + " to " + outPath + " : " + e.getMessage());
+		}
+	}
+	
+	// Adds up the counts of the partial score files, the score of the sum is the score of the whole data set.
+	private void mergePartialScores() {
+		PartialScore total = new PartialScore();
+		for (String path: mergePaths.split(",")) {
+			path = path.trim();
+			try {
+				total.add(PartialScore.read(new File(path)));
+			}
+			catch (IOException e) {
+				exit("Can't read partial score from " + path + " : " + e.getMessage());
+			}
+		}
+		categoryToScore = new HashMap<>();
+		for (Map.Entry<String, int[]> e: total.counts.entrySet()) {
+			if (!categoryWeights.containsKey(e.getKey())) exit("Unknown category in partial scores: " + e.getKey());
+			Metrics m = new Metrics();
+			m.tp = e.getValue()[0];
+			m.fp = e.getValue()[1];
+			m.fn = e.getValue()[2];
+			categoryToScore.put(e.getKey(), m);
+		}
+		log("Merged " + mergePaths.split(",").length + " partial scores, " + total.boxCnt + " boxes, "
+				+ total.errorScenes.size() + " scenes with error");
+		log(getScoreText());
+		if (partialOutPath != null) {
+			try {
+				total.write(new File(partialOutPath));
+				log("Merged partial score written to " + partialOutPath);
+			}
+			catch (IOException e) {
+				exit("Can't write partial score to " + partialOutPath + " : " + e.getMessage());
+			}
+		}
+	}
+
 	private String pad(String s, int len) {
 		if (s.length() > len-1) s = s.substring(0, len-1);
 		while (s.length() < len) s += " ";
@@ -338,18 +989,17 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 		log("Reading truth data from " + dataDir + " ...");
 		boxIdToCategory = new HashMap<>();
 		boxIdToSceneId = new HashMap<>();
-		sceneIdToScene = new HashMap<>();
+		scenes = new SceneTable();
 		
-		if (!createTOC && new File(dataDir, TOC_FILE_NAME).exists()) {
+		if (!createTOC && dataSource.getSideFile(TOC_FILE_NAME).exists()) {
 			log("  using TOC file");
 			loadTruthFromToc();
+			if (scoreCube != null) loadScoreCubeMetaData();
 		}
 		else {
-			recurseTruthDir(new File(dataDir));
+			recurseTruthDir("");
 		}
-		
-		scenes = sceneIdToScene.values().toArray(new Scene[0]);
-		Arrays.sort(scenes);
+		scenes.pack();
 		
 		if (writeSolution) {
 			writeSolution();
@@ -358,13 +1008,29 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 	
 	private void loadTruthFromToc() {
 		try {
-			String dataDirPath = new File(dataDir).getCanonicalPath();
 			boolean hasLimit = maxNperCategory < Integer.MAX_VALUE;
-			Map<String, Integer> categoryCounts = new HashMap<>();
-			if (hasLimit) {
-				for (String cat: categorySet) categoryCounts.put(cat, 0);
+			File idxFile = dataSource.getSideFile(TOC_INDEX_FILE_NAME);
+			if (hasLimit && idxFile.exists()) {
+				// seek directly to the needed lines of each category
+				Random rnd = sampleSeed == null ? null : new Random(sampleSeed);
+				TocIndex index = new TocIndex(idxFile, dataSource.getSideFile(TOC_FILE_NAME));
+				for (String cat: index.getCategories()) {
+					index.readLines(cat, maxNperCategory, rnd, sceneFilterPattern, new TocIndex.LineHandler() {
+						@Override
+						public void line(String line) {
+							addTocLine(line.split("\t"));
+						}
+					});
+				}
+				index.close();
+				return;
 			}
-			LineNumberReader lnr = new LineNumberReader(new FileReader(new File(dataDir, TOC_FILE_NAME)));
+			if (hasLimit && sampleSeed != null) {
+				log("  no TOC index found, -sample-seed is ignored. Recreate the TOC file to use it.");
+			}
+			
+			Map<String, Integer> categoryCounts = new HashMap<>();
+			LineNumberReader lnr = new LineNumberReader(new FileReader(dataSource.getSideFile(TOC_FILE_NAME)));
 	        while (true) {
 				String line = lnr.readLine();
 				if (line == null) break;
@@ -378,30 +1044,19 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 					}
 				}
 				if (hasLimit) {
-					String cat = parts[3].split(";")[1]; // use only the first box, there's only 1 in training data
-					if (categorySet.contains(cat) && categoryCounts.get(cat) >= maxNperCategory) {
+					List<String> boxCats = new Vector<>();
+					for (int i = 3; i < parts.length; i++) {
+						boxCats.add(parts[i].split(";")[1]);
+					}
+					String cat = getSceneCategory(boxCats);
+					Integer cnt = categoryCounts.get(cat);
+					if (cnt == null) cnt = 0;
+					if (cnt >= maxNperCategory) {
 						continue;
 					}
-					int cnt = categoryCounts.get(cat);
 					categoryCounts.put(cat, cnt + 1);
 				}
-				
-				Scene scene = new Scene();
-				scene.id = sceneId;
-				scene.dir = new File(dataDirPath + parts[1]);
-				String[] tIds = parts[2].split(";");
-				for (String t: tIds) {
-					scene.tList.add(Integer.parseInt(t));
-				}
-				sceneIdToScene.put(sceneId, scene);
-				
-				for (int i = 3; i < parts.length; i++) {
-					String[] boxCat = parts[i].split(";");
-					int boxId = Integer.parseInt(boxCat[0]);
-					String cat = boxCat[1];
-					boxIdToCategory.put(boxId, cat);
-					boxIdToSceneId.put(boxId, sceneId);
-				}
+				addTocLine(parts);
 			}
 			lnr.close();
 		} 
@@ -409,75 +1064,150 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 			e.printStackTrace();
 		}
 	}
-
-	private void recurseTruthDir(File dir) {
-		int dirCnt = 0;
-		for (File f: dir.listFiles()) {
-			if (f.isDirectory()) {
-				recurseTruthDir(f);
-				dirCnt++;
-				if (dirCnt == maxNperCategory && categorySet.contains(dir.getName())) {
-					break;
+	
+	private void addTocLine(String[] parts) {
+		String sceneId = parts[0];
+		// older TOC files may contain platform specific separators
+		String dir = parts[1].replace('\\', '/');
+		while (dir.startsWith("/")) dir = dir.substring(1);
+		int scene = scenes.add(sceneId, dir);
+		String[] tIds = parts[2].split(";");
+		for (String t: tIds) {
+			// gsd is missing from TOC files created before 1.1
+			String[] tGsd = t.split(":");
+			int tmpId = Integer.parseInt(tGsd[0]);
+			scenes.addView(scene, tmpId, tGsd.length > 1 ? Double.parseDouble(tGsd[1]) : Double.NaN);
+		}
+		
+		for (int i = 3; i < parts.length; i++) {
+			String[] boxCat = parts[i].split(";");
+			int boxId = Integer.parseInt(boxCat[0]);
+			String cat = boxCat[1];
+			boxIdToCategory.put(boxId, cat);
+			boxIdToSceneId.put(boxId, sceneId);
+			if (boxCat.length > 3) {
+				int tmpId = Integer.parseInt(boxCat[2]);
+				if (!Double.isNaN(scenes.getGsd(scene, tmpId))) {
+					String[] coords = boxCat[3].split(",");
+					int[] rect = new int[4];
+					for (int j = 0; j < 4; j++) rect[j] = Integer.parseInt(coords[j]);
+					scenes.addBox(scene, tmpId, boxId, getCategoryOrdinal(cat), rect);
 				}
 			}
-			else {
-				String suffix = useMsData ? "_msrgb.json" : "_rgb.json";
-				if (f.getName().endsWith(suffix)) {
-					// train/airport/airport_0/airport_0_0_msrgb.json
-					String imageName = f.getName();
-					String[] parts = imageName.split("_");
-					int n = parts.length;
-					String sceneId = "";
-					for (int i = 0; i < n-2; i++) {
-						sceneId += parts[i];
-						if (i < n-3) sceneId += "_";
-					}
-					if (sceneFilterPattern != null) {
-						Matcher m = sceneFilterPattern.matcher(sceneId);
+		}
+	}
+
+	// Lists folders lazily. Scene folders directly below a category folder (train/airport/airport_0) are
+	// matched against the scene filter before descending into them, and listing a category folder stops
+	// as soon as its quota of scenes is met.
+	private void recurseTruthDir(String dir) {
+		boolean isCategoryDir = categorySet.contains(DataSource.getName(dir));
+		int sceneCnt = 0;
+		try (DirectoryStream<String> ds = dataSource.list(dir)) {
+			for (String name: ds) {
+				String path = DataSource.child(dir, name);
+				if (dataSource.isDirectory(path)) {
+					if (isCategoryDir && sceneFilterPattern != null) {
+						Matcher m = sceneFilterPattern.matcher(name);
 						if (!m.find()) {
 							continue;
 						}
 					}
-					
-					int timeId = Integer.parseInt(parts[n-2]);
-					
-					// do we have the corresponding jpg?
-					imageName = imageName.replace(".json", ".jpg");
-					File imageF = new File(dir, imageName);
-					Scene scene = null;
-					if (imageF.exists()) {
-						scene = sceneIdToScene.get(sceneId);
-						if (scene == null) {
-							scene = new Scene();
-							scene.id = sceneId;
-							scene.dir = dir;
-							sceneIdToScene.put(sceneId, scene);
-						}
-						scene.tList.add(timeId);
-					}
-					else {
-						log("Image file " + sceneId + " not found");
-						continue;
-					}
-					
-					try {
-						MetaData md = gson.fromJson(new FileReader(f), MetaData.class);
-						for (Box b: md.bounding_boxes) {
-							int id = b.ID;
-							String cat = b.category;
-							if (cat == null) cat = FALSE_DETECTION;
-							boxIdToCategory.put(id, cat);
-							boxIdToSceneId.put(id, sceneId);
+					int sceneCntBefore = scenes.size();
+					recurseTruthDir(path);
+					// count only folders that actually contributed a scene
+					if (isCategoryDir && scenes.size() > sceneCntBefore) {
+						sceneCnt++;
+						if (sceneCnt >= maxNperCategory) {
+							break;
 						}
 					}
-					catch (Exception e) {
-						log("Error reading meta data from " + f.getAbsolutePath());
-						e.printStackTrace();
-						System.exit(1);
-					}
-				} // f ends in json
-			} // f is file
-		} // for files in dir
+				}
+				else {
+					addTruthFile(name, dir);
+				}
+			}
+		}
+		catch (IOException e) {
+			log("Error listing folder " + dir);
+			e.printStackTrace();
+		}
+	}
+
+	private void addTruthFile(String fileName, String dir) {
+		String suffix = useMsData ? "_msrgb.json" : "_rgb.json";
+		if (!fileName.endsWith(suffix)) return;
+		// train/airport/airport_0/airport_0_0_msrgb.json
+		String imageName = fileName;
+		String[] parts = imageName.split("_");
+		int n = parts.length;
+		String sceneId = "";
+		for (int i = 0; i < n-2; i++) {
+			sceneId += parts[i];
+			if (i < n-3) sceneId += "_";
+		}
+		if (sceneFilterPattern != null) {
+			Matcher m = sceneFilterPattern.matcher(sceneId);
+			if (!m.find()) {
+				return;
+			}
+		}
+		
+		int timeId = Integer.parseInt(parts[n-2]);
+		
+		// do we have the corresponding jpg?
+		imageName = imageName.replace(".json", ".jpg");
+		if (!dataSource.exists(DataSource.child(dir, imageName))) {
+			log("Image file " + sceneId + " not found");
+			return;
+		}
+		
+		try {
+			MetaData md = readMetaData(DataSource.child(dir, fileName));
+			if (scoreCube != null) scoreCube.addImage(md);
+			int scene = scenes.add(sceneId, dir);
+			scenes.addView(scene, timeId, md.gsd);
+			for (Box b: md.bounding_boxes) {
+				int id = b.ID;
+				String cat = b.category;
+				if (cat == null || cat.equals(FALSE_DETECTION_ALIAS)) cat = FALSE_DETECTION;
+				scenes.addBox(scene, timeId, id, getCategoryOrdinal(cat), b.box);
+				boxIdToCategory.put(id, cat);
+				boxIdToSceneId.put(id, sceneId);
+			}
+		}
+		catch (Exception e) {
+			log("Error reading meta data from " + DataSource.child(dir, fileName));
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+	
+	// The TOC has no meta data, read it for the loaded scenes only if scores are grouped by meta data.
+	private void loadScoreCubeMetaData() {
+		String suffix = useMsData ? "_msrgb.json" : "_rgb.json";
+		List<String> paths = new ArrayList<>();
+		for (int scene = 0; scene < scenes.size(); scene++) {
+			for (int t: scenes.getViews(scene)) {
+				paths.add(DataSource.child(scenes.getDir(scene), scenes.getId(scene) + "_" + t + suffix));
+			}
+		}
+		dataSource.prefetch(paths);
+		for (String path: paths) {
+			try {
+				scoreCube.addImage(readMetaData(path));
+			}
+			catch (Exception e) {
+				log("Error reading meta data from " + path);
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	private MetaData readMetaData(String path) throws IOException {
+		try (Reader r = new InputStreamReader(dataSource.open(path), StandardCharsets.UTF_8)) {
+			return gson.fromJson(r, MetaData.class);
+		}
 	}
 	
 	// output the perfect expected solution, debug only
@@ -504,21 +1234,82 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 			return;
 		}
 		log("Reading solution data from " + solutionPath + " ...");
-		List<String> lines = Utils.readTextLines(solutionPath);
-		int lineNo = 0;
-		for (String line: lines) {
-			lineNo++;
-			String[] parts = line.split(",");
-			if (parts.length != 2) {
-				exit("Wrong format at line " + lineNo + " : " + line);
-			}
-			int boxId = Integer.parseInt(parts[0].trim());
-			String guess = parts[1].trim();
-			if (!categorySet.contains(guess)) {
-				exit("Unknown category at line " + lineNo + " : " + guess);
+		try {
+			Solution sol = Solution.read(solutionPath, solutionCategoryToOrdinal); // text or binary
+			for (int i = 0; i < sol.size(); i++) boxIdToGuess.put(sol.ids[i], categoryNames[sol.cats[i]]);
+		}
+		catch (IOException e) {
+			exit("Can't read solution from " + solutionPath + " : " + e.getMessage());
+		}
+		if (!subsetScoring) checkSolutionComplete();
+	}
+	
+	// Reads the solution and loads the truth of only those boxes that it has predictions for (-subset).
+	// The boxes are looked up in the box index of the TOC, and only the TOC lines of their scenes are read.
+	private void loadSubset() {
+		if (solutionPath == null) exit("-subset needs a -solution");
+		File boxFile = dataSource.getSideFile(BOX_INDEX_FILE_NAME);
+		File idxFile = dataSource.getSideFile(TOC_INDEX_FILE_NAME);
+		if (!boxFile.exists() || !idxFile.exists()) {
+			exit("-subset needs the TOC and its indexes, re-create the TOC file with -toc");
+		}
+		loadSolution();
+		log("Reading truth data of the solution's boxes from " + dataDir + " ...");
+		boxIdToCategory = new HashMap<>();
+		boxIdToSceneId = new HashMap<>();
+		scenes = new SceneTable();
+		int unknownCnt = 0;
+		BoxIndex boxIndex = null;
+		try {
+			boxIndex = new BoxIndex(boxFile);
+			TocIndex tocIndex = new TocIndex(idxFile, dataSource.getSideFile(TOC_FILE_NAME));
+			Set<Integer> lines = new HashSet<>();
+			for (int boxId: boxIdToGuess.keySet()) {
+				int pos = boxIndex.find(boxId);
+				if (pos < 0) {
+					unknownCnt++;
+					continue;
+				}
+				int line = boxIndex.getLine(pos);
+				if (lines.add(line)) addTocLine(tocIndex.readLine(line).split("\t"));
 			}
-			boxIdToGuess.put(boxId, guess);
+			tocIndex.close();
+		}
+		catch (IOException e) {
+			exit("Can't read the box index: " + e.getMessage());
+		}
+		scenes.pack();
+		// scenes may have boxes that the solution doesn't predict, those are not part of the subset
+		boxIdToCategory.keySet().retainAll(boxIdToGuess.keySet());
+		boxIdToSceneId.keySet().retainAll(boxIdToGuess.keySet());
+		if (scoreCube != null) loadScoreCubeMetaData();
+		
+		String[] indexCategories = boxIndex.getCategories();
+		Map<String, Integer> indexOrdinals = new HashMap<>();
+		for (int c = 0; c < indexCategories.length; c++) indexOrdinals.put(indexCategories[c], c);
+		int[] subsetCounts = new int[indexCategories.length];
+		for (String cat: boxIdToCategory.values()) {
+			Integer c = indexOrdinals.get(categoryNames[getCategoryOrdinal(cat)]);
+			if (c != null) subsetCounts[c]++;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("Subset: " + boxIdToGuess.size() + " predictions, " + boxIdToCategory.size() + " of them are boxes of "
+				+ scenes.size() + " scenes, " + unknownCnt + " box IDs are not in the data set\n");
+		sb.append("  " + pad("--category--", 16) + "boxes in subset; boxes in data set; coverage\n");
+		int total = 0;
+		for (int c = 0; c < subsetCounts.length; c++) {
+			int all = boxIndex.getBoxCount(c);
+			total += all;
+			if (all == 0) continue;
+			sb.append("  " + pad(indexCategories[c], 16) + subsetCounts[c] + "; " + all + "; "
+					+ f(100.0 * subsetCounts[c] / all) + "%\n");
 		}
+		sb.append("  " + pad("all", 16) + boxIdToCategory.size() + "; " + total + "; "
+				+ f(total == 0 ? 0 : 100.0 * boxIdToCategory.size() / total) + "%");
+		log(sb.toString());
+	}
+	
+	private void checkSolutionComplete() {
 		// all truth box has to have a prediction
 		for (int id: boxIdToCategory.keySet()) {
 			if (!boxIdToGuess.containsKey(id)) {
@@ -526,6 +1317,102 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 			}
 		}
 	}
+	
+	// Reads the solution from stdin (-) or from a file that is still being written, and logs the
+	// score of the boxes predicted so far every streamIntervalSec seconds. Reading ends at the end of
+	// stdin, or for a file when all truth boxes have a prediction or nothing was added for
+	// streamTimeoutSec seconds. The solution then has to be complete, as in loadSolution().
+	private void streamSolution() {
+		boxIdToGuess = new HashMap<>();
+		categoryToScore = new HashMap<>();
+		boolean stdin = solutionStreamPath.equals("-");
+		log("Reading solution data from " + (stdin ? "standard input" : solutionStreamPath) + " while it is written ...");
+		int lineNo = 0;
+		int coveredCnt = 0; // truth boxes that have a prediction
+		long start = System.currentTimeMillis();
+		long lastReport = start;
+		long lastData = start;
+		try (InputStream in = stdin ? System.in : new FileInputStream(solutionStreamPath)) {
+			byte[] buf = new byte[64 * 1024];
+			ByteArrayOutputStream line = new ByteArrayOutputStream(); // a line may arrive in parts
+			while (true) {
+				int n = in.read(buf);
+				long now = System.currentTimeMillis();
+				if (n < 0) {
+					if (stdin || coveredCnt == boxIdToCategory.size() || now - lastData > 1000L * streamTimeoutSec) break;
+					Thread.sleep(200); // wait for the file to grow
+				}
+				else {
+					lastData = now;
+				}
+				for (int i = 0; i < n; i++) {
+					if (buf[i] != '\n') {
+						line.write(buf[i]);
+						continue;
+					}
+					lineNo++;
+					coveredCnt += countPrediction(new String(line.toByteArray(), StandardCharsets.UTF_8), lineNo);
+					line.reset();
+				}
+				if (now - lastReport >= 1000L * streamIntervalSec) {
+					lastReport = now;
+					logStreamProgress(lineNo, coveredCnt, now - start);
+				}
+			}
+			if (line.size() > 0) { // the last line may have no line break
+				lineNo++;
+				coveredCnt += countPrediction(new String(line.toByteArray(), StandardCharsets.UTF_8), lineNo);
+			}
+		}
+		catch (Exception e) {
+			exit("Error reading solution from " + solutionStreamPath + " : " + e.getMessage());
+		}
+		logStreamProgress(lineNo, coveredCnt, System.currentTimeMillis() - start);
+		checkSolutionComplete();
+	}
+	
+	// Adds a prediction to the running counts of categoryToScore, replacing an earlier prediction of
+	// the same box. Returns 1 if it's the first prediction of a truth box, 0 otherwise. The line is
+	// checked by the same rules as the lines of a -solution file.
+	private int countPrediction(String line, int lineNo) throws IOException {
+		if (Solution.isSkipped(line)) return 0;
+		long parsed = Solution.parseLine(line, lineNo, solutionCategoryToOrdinal);
+		int boxId = (int) (parsed >> 32);
+		String guess = categoryNames[(int) (parsed & 0xff)];
+		String old = boxIdToGuess.put(boxId, guess);
+		String truth = boxIdToCategory.get(boxId);
+		if (truth == null) return 0; // not a box of the loaded scenes
+		if (old != null) countPrediction(truth, old, -1);
+		countPrediction(truth, guess, 1);
+		return old == null ? 1 : 0;
+	}
+	
+	private void countPrediction(String truth, String guess, int d) {
+		if (truth.equals(FALSE_DETECTION_ALIAS)) truth = FALSE_DETECTION;
+		if (guess.equals(FALSE_DETECTION_ALIAS)) guess = FALSE_DETECTION;
+		if (truth.equals(guess)) {
+			getRunningMetrics(truth).tp += d;
+		}
+		else {
+			getRunningMetrics(truth).fn += d;
+			getRunningMetrics(guess).fp += d;
+		}
+	}
+	
+	private Metrics getRunningMetrics(String category) {
+		Metrics m = categoryToScore.get(category);
+		if (m == null) {
+			m = new Metrics();
+			categoryToScore.put(category, m);
+		}
+		return m;
+	}
+	
+	private void logStreamProgress(int lineCnt, int coveredCnt, long ms) {
+		int truthCnt = boxIdToCategory.size();
+		log("  " + lineCnt + " lines in " + (ms / 1000) + " s, " + coveredCnt + " of " + truthCnt + " truth boxes predicted ("
+				+ f(truthCnt == 0 ? 0 : 100.0 * coveredCnt / truthCnt) + "%), F-score so far : " + f6(getOverallFScore()));
+	}
     
     private void getBestRulerIndex() {
 		int wBest = mapView.getWidth() / 4;
@@ -540,17 +1427,11 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 		}		
 	}
 	
-	private class Scene implements Comparable<Scene> {
-		public String id;
-		public boolean isError;
-		public File dir;
-		public List<Integer> tList = new Vector<>(); // temporal view ids
-		public String guess; // filled in only if guess is wrong
-		
-		@Override
-		public int compareTo(Scene o) {
-			return id.compareTo(o.id);
-		}
+	// Ordinal of a box category as stored in the scene table, false_detection for a missing or unknown category.
+	private int getCategoryOrdinal(String cat) {
+		Integer ord = cat == null ? null : categoryToOrdinal.get(cat);
+		if (ord == null) ord = categoryToOrdinal.get(FALSE_DETECTION);
+		return ord;
 	}
 
 	private class Metrics {
@@ -562,23 +1443,87 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 		public double fScore = 0;
 		
 		public void calculate() {
-			if (tp + fp > 0) precision = (double)tp / (tp + fp);
-			if (tp + fn > 0) recall = (double)tp / (tp + fn);
-			if (precision + recall > 0) {
-				fScore = 2 * precision * recall / (precision + recall);
-			}
+			precision = tp + fp > 0 ? (double)tp / (tp + fp) : 0;
+			recall = tp + fn > 0 ? (double)tp / (tp + fn) : 0;
+			fScore = precision + recall > 0 ? 2 * precision * recall / (precision + recall) : 0;
 		}
 	}
 	
+	// Decoded images of the temporal stack. Images are decoded concurrently, and the least recently
+	// used ones are dropped when the stack grows beyond a quarter of the available heap.
+	private class ImageCache {
+		private ExecutorService executor;
+		private Map<String, Future<MapData>> entries = new LinkedHashMap<>(16, 0.75f, true); // access order
+		private Map<String, Long> sizes = new HashMap<>();
+		private long budget = Runtime.getRuntime().maxMemory() / 4;
+		private long used = 0;
+
+		public synchronized Future<MapData> request(final String path) {
+			Future<MapData> f = entries.get(path);
+			if (f != null) return f;
+			if (executor == null) {
+				int n = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+				executor = newDaemonPool(n, "image-loader");
+			}
+			f = executor.submit(new Callable<MapData>() {
+				@Override
+				public MapData call() throws Exception {
+					try {
+						MapData mapData = readMapData(path);
+						added(path, 4L * mapData.W * mapData.H);
+						return mapData;
+					}
+					catch (Exception e) {
+						failed(path); // so that it can be tried again
+						throw e;
+					}
+				}
+			});
+			entries.put(path, f);
+			return f;
+		}
+
+		private synchronized void failed(String path) {
+			entries.remove(path);
+		}
+
+		private synchronized void added(String path, long size) {
+			if (!entries.containsKey(path)) return;
+			sizes.put(path, size);
+			used += size;
+			Iterator<String> it = entries.keySet().iterator();
+			while (used > budget && it.hasNext()) {
+				String p = it.next();
+				Long s = sizes.get(p);
+				if (p.equals(path) || s == null) continue; // keep the newest and the ones still loading
+				it.remove();
+				sizes.remove(p);
+				used -= s;
+			}
+		}
+	}
+
 	private class MapData {
 		public int W;
 		public int H;
 		public int[][] pixels;
+		public int[][] histogram = new int[3][256]; // red, green, blue
 		
 		public MapData(int w, int h) {
 			W = w; H = h;
 			pixels = new int[W][H];
 		}
+		
+		// The smallest value of channel ch that is reached by more than fraction q of the pixels.
+		public int percentile(int ch, double q) {
+			long limit = (long) (q * W * H);
+			long sum = 0;
+			for (int v = 0; v < 256; v++) {
+				sum += histogram[ch][v];
+				if (sum > limit) return v;
+			}
+			return 255;
+		}
 	}
 	
 	public class Box {
@@ -656,13 +1601,81 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 		
 		errorsOnlyCb = new JCheckBox("Show only images with error");
 		errorsOnlyCb.setSelected(false);
+		errorsOnlyCb.setEnabled(false); // until scores are known
 		errorsOnlyCb.addActionListener(this);
 		c2.gridy = y++;
 		controlsPanel.add(errorsOnlyCb, c2);
 		
+		preloadViewsCb = new JCheckBox("Preload temporal views");
+		preloadViewsCb.setSelected(false);
+		preloadViewsCb.addActionListener(this);
+		c2.gridy = y++;
+		controlsPanel.add(preloadViewsCb, c2);
+		
+		blinkCb = new JCheckBox("Blink temporal views");
+		blinkCb.setSelected(false);
+		blinkCb.setEnabled(false);
+		blinkCb.addActionListener(this);
+		c2.gridy = y++;
+		controlsPanel.add(blinkCb, c2);
+		blinkTimer = new Timer(700, this);
+		
+		showMetaDataCb = new JCheckBox("Show meta data");
+		showMetaDataCb.setSelected(true);
+		showMetaDataCb.addActionListener(this);
+		c2.gridy = y++;
+		controlsPanel.add(showMetaDataCb, c2);
+		
+		stretchCb = new JCheckBox("Stretch contrast");
+		stretchCb.setSelected(false);
+		stretchCb.addActionListener(this);
+		c2.gridy = y++;
+		controlsPanel.add(stretchCb, c2);
+		
+		JPanel adjustPanel = new JPanel(new GridBagLayout());
+		gammaSlider = addSlider(adjustPanel, " Gamma ", -100, 100, 0);
+		gainSliders = new JSlider[3];
+		gainSliders[0] = addSlider(adjustPanel, " Red ", 0, 200, 100);
+		gainSliders[1] = addSlider(adjustPanel, " Green ", 0, 200, 100);
+		gainSliders[2] = addSlider(adjustPanel, " Blue ", 0, 200, 100);
+		c2.gridy = y++;
+		controlsPanel.add(adjustPanel, c2);
+		
 		xyInfoLabel = new JLabel(" XYZ: ");
 		c2.gridy = y++;
 		controlsPanel.add(xyInfoLabel, c2);
+		
+		JPanel searchPanel = new JPanel(new BorderLayout());
+		searchPanel.add(new JLabel(" Search: "), BorderLayout.WEST);
+		searchField = new JTextField();
+		searchField.setToolTipText("Start of a scene ID, or a category name");
+		searchField.setEnabled(false); // until all scenes are loaded
+		searchPanel.add(searchField, BorderLayout.CENTER);
+		c2.gridy = y++;
+		controlsPanel.add(searchPanel, c2);
+		searchTimer = new Timer(150, this);
+		searchTimer.setRepeats(false);
+		searchField.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				searchTimer.restart();
+			}
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				searchTimer.restart();
+			}
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+			}
+		});
+		
+		progressBar = new JProgressBar();
+		progressBar.setIndeterminate(true);
+		progressBar.setStringPainted(true);
+		progressBar.setString("Starting");
+		c2.gridy = y++;
+		controlsPanel.add(progressBar, c2);
+		loadTimer = new Timer(300, this);
 						
 		JScrollPane sp = new JScrollPane();
 		logArea = new JTextArea("", 10, 20);
@@ -674,6 +1687,7 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 		controlsPanel.add(sp, c2);
 		
 		sp = new JScrollPane();
+		infoScrollPane = sp;
 		infoArea = new JTextArea("", 10, 20);
 		infoArea.setFont(new Font("Monospaced", Font.PLAIN, 16));
 		infoArea.addMouseListener(this);
@@ -685,80 +1699,296 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 		frame.setVisible(true);
 	}
 	
+	private String getImagePath(int scene, int t) {
+		String name = scenes.getId(scene) + "_" + t + "_";
+		name += useMsData ? "msrgb.jpg" : "rgb.jpg";
+		return DataSource.child(scenes.getDir(scene), name);
+	}
+	
+	private MapData readMapData(String path) throws IOException {
+		final BufferedImage img;
+		try (InputStream in = dataSource.open(path)) { 
+			img = ImageIO.read(in);
+		}
+		final int w = img.getWidth();
+		final int h = img.getHeight();
+		final MapData mapData = new MapData(w, h);
+		// stripes of rows are copied in parallel, each counting its own histogram
+		int n = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), h / 64));
+		List<Future<int[][]>> parts = new ArrayList<>();
+		for (int k = 0; k < n; k++) {
+			final int from = h * k / n;
+			final int to = h * (k + 1) / n;
+			parts.add(getPixelExecutor().submit(new Callable<int[][]>() {
+				@Override
+				public int[][] call() {
+					int[][] hist = new int[3][256];
+					int[] r = hist[0], g = hist[1], b = hist[2];
+					int[] row = new int[w];
+					for (int j = from; j < to; j++) {
+						img.getRGB(0, j, w, 1, row, 0, w);
+						for (int i = 0; i < w; i++) {
+							int c = row[i];
+							mapData.pixels[i][j] = c;
+							r[(c >> 16) & 255]++;
+							g[(c >> 8) & 255]++;
+							b[c & 255]++;
+						}
+					}
+					return hist;
+				}
+			}));
+		}
+		try {
+			for (Future<int[][]> f: parts) {
+				int[][] hist = f.get();
+				for (int ch = 0; ch < 3; ch++) {
+					for (int v = 0; v < 256; v++) mapData.histogram[ch][v] += hist[ch][v];
+				}
+			}
+		}
+		catch (Exception e) {
+			throw new IOException("Error copying pixels of " + path, e);
+		}
+		return mapData;
+	}
+	
+	private synchronized ExecutorService getPixelExecutor() {
+		if (pixelExecutor == null) {
+			pixelExecutor = newDaemonPool(Runtime.getRuntime().availableProcessors(), "pixel-copier");
+		}
+		return pixelExecutor;
+	}
+	
+	private static ExecutorService newDaemonPool(int n, final String name) {
+		return Executors.newFixedThreadPool(n, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	// Builds lut from the adjustment controls and the histogram of the current image. Histogram
+	// stretch maps the 0.5% and 99.5% percentiles of each channel to 0 and 255, then gamma and gain are applied.
+	private void updateLut() {
+		MapData mapData = currentMapData;
+		if (stretchCb == null || mapData == null) {
+			lut = null;
+			return;
+		}
+		boolean stretch = stretchCb.isSelected();
+		double gamma = Math.pow(2, gammaSlider.getValue() / 50.0);
+		boolean identity = !stretch && gammaSlider.getValue() == 0;
+		for (JSlider gs: gainSliders) identity &= gs.getValue() == 100;
+		if (identity) {
+			lut = null;
+			return;
+		}
+		int[][] newLut = new int[3][256];
+		for (int ch = 0; ch < 3; ch++) {
+			int lo = 0;
+			int hi = 255;
+			if (stretch) {
+				lo = mapData.percentile(ch, 0.005);
+				hi = mapData.percentile(ch, 0.995);
+				if (hi <= lo) {
+					lo = 0;
+					hi = 255;
+				}
+			}
+			double gain = gainSliders[ch].getValue() / 100.0;
+			int shift = 16 - 8 * ch;
+			for (int v = 0; v < 256; v++) {
+				double x = Math.min(1, Math.max(0, (double) (v - lo) / (hi - lo)));
+				x = Math.pow(x, 1 / gamma) * gain;
+				newLut[ch][v] = (int) Math.round(255 * Math.min(1, x)) << shift;
+			}
+		}
+		lut = newLut;
+	}
+	
+	// Starts loading all temporal views of the scene in the background, scene is -1 if none is open yet.
+	private void preloadViews(int scene) {
+		if (!preloadViewsCb.isSelected() || scene < 0) return;
+		for (int t: scenes.getViews(scene)) {
+			imageCache.request(getImagePath(scene, t));
+		}
+	}
+	
 	private void loadImage(int t) {
-    	String name = currentScene.id + "_" + t + "_";
-    	name += useMsData ? "msrgb.jpg" : "rgb.jpg";
-    	frame.setTitle(TITLE + " - " + name);
-		File f = new File(currentScene.dir, name);
-		try { 
-			BufferedImage img = ImageIO.read(f);
-			int w = img.getWidth();
-			int h = img.getHeight();
-			currentMapData = new MapData(w, h);
-			for (int i = 0; i < w; i++) for (int j = 0; j < h; j++) {
-				int c = img.getRGB(i, j);
-				currentMapData.pixels[i][j] = c;
-			}
-			scale = (double)currentMapData.W / mapView.getWidth(); 
-			x0 = 0; y0 = 0;
+		String path = getImagePath(currentScene, t);
+		if (frame != null) frame.setTitle(TITLE + " - " + DataSource.getName(path));
+		try {
+			MapData mapData;
+			if (preloadViewsCb.isSelected()) {
+				mapData = imageCache.request(path).get();
+			}
+			else {
+				mapData = readMapData(path);
+			}
+			if (preloadViewsCb.isSelected() && viewScene == currentScene && currentMapData != null) {
+				// another view of the same scene: keep showing the same part of it
+				scale *= (double)mapData.W / currentMapData.W;
+			}
+			else {
+				scale = (double)mapData.W / mapView.getWidth(); 
+				x0 = 0; y0 = 0;
+			}
+			currentMapData = mapData;
+			updateLut();
 		} 
 		catch (Exception e) {
-			log("Error reading image from " + f.getAbsolutePath());
+			log("Error reading image from " + path);
 			e.printStackTrace();
 		}
+		viewScene = currentScene;
+		currentT = t;
 		
-		// load meta data
-		String metaPath = f.getAbsolutePath().replace(".jpg", ".json");
-		f = new File(metaPath);
-		try {
-			MetaData md = gson.fromJson(new FileReader(f), MetaData.class);
-			currentGsd = md.gsd;
-			currentBoxes = md.bounding_boxes;
-			for (Box b: currentBoxes) {
-				if (b.category == null || b.category.equals(FALSE_DETECTION_ALIAS)) {
-					b.category = FALSE_DETECTION;
+		// load meta data, the json is parsed only if the TOC doesn't have what's needed for drawing
+		currentMetaPath = path.replace(".jpg", ".json");
+		currentGsd = scenes.getGsd(currentScene, t);
+		if (!Double.isNaN(currentGsd)) {
+			int[] boxes = scenes.getBoxes(currentScene, t);
+			currentBoxes = new Box[boxes.length / 6];
+			for (int i = 0; i < currentBoxes.length; i++) {
+				Box b = new Box();
+				b.ID = boxes[6*i];
+				b.category = categoryNames[boxes[6*i+1]];
+				b.box = Arrays.copyOfRange(boxes, 6*i+2, 6*i+6);
+				currentBoxes[i] = b;
+			}
+		}
+		else {
+			try {
+				MetaData md = readMetaData(currentMetaPath);
+				currentGsd = md.gsd;
+				currentBoxes = md.bounding_boxes;
+				for (Box b: currentBoxes) {
+					if (b.category == null || b.category.equals(FALSE_DETECTION_ALIAS)) {
+						b.category = FALSE_DETECTION;
+					}
 				}
-				b.guess = boxIdToGuess.get(b.ID);
 			}
-			getBestRulerIndex();
-			
-			String formatted = gson.toJson(md);
-			infoArea.setText(formatted);
-			infoArea.setCaretPosition(0);
+			catch (Exception e) {
+				log("Error reading meta data from " + currentMetaPath);
+				e.printStackTrace();
+				System.exit(1);
+			}
 		}
-		catch (Exception e) {
-			log("Error reading meta data from " + f.getAbsolutePath());
-			e.printStackTrace();
-			System.exit(1);
+		setGuesses();
+		currentBoxGrid = new BoxGrid(currentBoxes);
+		getBestRulerIndex();
+		if (frame != null) frame.repaint();
+		showMetaData();
+	}
+	
+	// Guesses are known only after the solution is read, which may happen after the image is shown.
+	private void setGuesses() {
+		if (!scored) return;
+		for (Box b: currentBoxes) {
+			b.guess = boxIdToGuess.get(b.ID);
 		}
-		frame.repaint();
+		currentBoxes = currentBoxes.clone(); // a new array, so that the cached overlay is redrawn
+	}
+	
+	// The full meta data is pretty printed only if the info panel is shown. It's read and formatted
+	// in the background, only the text is set on the UI thread.
+	private void showMetaData() {
+		infoArea.setText("");
+		if (!showMetaDataCb.isSelected() || currentMetaPath == null) return;
+		final String metaPath = currentMetaPath;
+		metaDataExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (!metaPath.equals(currentMetaPath)) return; // another image was selected meanwhile
+				final String formatted;
+				try {
+					formatted = gson.toJson(readMetaData(metaPath));
+				}
+				catch (Exception e) {
+					log("Error reading meta data from " + metaPath);
+					e.printStackTrace();
+					return;
+				}
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (!metaPath.equals(currentMetaPath)) return;
+						infoArea.setText(formatted);
+						infoArea.setCaretPosition(0);
+					}
+				});
+			}
+		});
 	}
 	
 	private void refreshLogArea(boolean errorsOnly) {
 		logArea.setText("");
-		String scoreText = getScoreText();
-		logArea.append(scoreText);
+		if (!categoryToScore.isEmpty()) logArea.append(getScoreText());
+		if (diffText != null) logArea.append(diffText);
 		writeImageList(errorsOnly);
 		logArea.setCaretPosition(0);
 	}
 		
 	private void writeImageList(boolean errorsOnly) {
 		StringBuilder sb = new StringBuilder();
-		sb.append("\n========\n Images\n========\n");
-		for (Scene s: scenes) {
-			if (!s.isError && errorsOnly) continue;
+		if (shownScenes == null) {
+			sb.append("\n========\n Images\n========\n");
+		}
+		else {
+			sb.append("\n========\n Images matching '" + searchField.getText().trim() + "': " + shownScenes.length + "\n========\n");
+		}
+		int n = shownScenes == null ? scenes.size() : shownScenes.length;
+		for (int i = 0; i < n; i++) {
+			int s = shownScenes == null ? scenes.getSorted(i) : shownScenes[i];
+			boolean isError = scenes.isError(s);
+			if (!isError && errorsOnly) continue;
 			
-			sb.append(s.isError ? " * " : "   ");
-			sb.append(s.id);
-			for (int t: s.tList) sb.append(" _").append(t);
-			if (s.isError && s.guess != null) {
-				sb.append(ARROW).append(s.guess);
+			sb.append(isError ? " * " : "   ");
+			sb.append(scenes.getId(s));
+			for (int t: scenes.getViews(s)) sb.append(" _").append(t);
+			if (isError && scenes.getGuess(s) != null) {
+				sb.append(ARROW).append(scenes.getGuess(s));
+			}
+			if (scenes.getDiff(s) != null) {
+				sb.append("  [").append(scenes.getDiff(s)).append("]");
 			}
 			sb.append("\n");
 		}
 		logArea.append(sb.toString());
 	}
 
+	// Adds a labeled slider as a new row of panel, moving it changes the colors of the image.
+	private JSlider addSlider(JPanel panel, String label, int min, int max, int value) {
+		JSlider slider = new JSlider(min, max, value);
+		slider.setToolTipText("Double click to reset");
+		final int defaultValue = value;
+		slider.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				updateLut();
+				repaintMap();
+			}
+		});
+		slider.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2) ((JSlider) e.getSource()).setValue(defaultValue);
+			}
+		});
+		GridBagConstraints c = new GridBagConstraints();
+		c.gridy = panel.getComponentCount() / 2;
+		c.anchor = GridBagConstraints.WEST;
+		panel.add(new JLabel(label), c);
+		c.fill = GridBagConstraints.HORIZONTAL;
+		c.weightx = 1;
+		panel.add(slider, c);
+		return slider;
+	}
+	
 	private void repaintMap() {
 		if (mapView != null) mapView.repaint();
 	}
@@ -771,12 +2001,29 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 		private BufferedImage image;
 		private int invalidColor = (50 << 16) | (150 << 8) | 200;
 		private int M = 5;		
+		private MapData imageMapData; // what the pixels of image were rendered from
+		private int[][] imageLut; // and with what color lookup table
+		private double imageScale, imageX0, imageY0;
+		private Timer zoomTimer;
+		private BufferedImage overlay; // cached boxes and labels, see renderOverlay()
+		private double overlayScale, overlayX0, overlayY0;
+		private Box[] overlayBoxes;
+		private int overlayFlags;
+		private Map<String, Integer> textWidths = new HashMap<>();
 		
 		public MapView() {
 			super();
 			this.addMouseListener(this);
 			this.addMouseMotionListener(this);
 			this.addMouseWheelListener(this);
+			// a burst of wheel events results in a single render
+			zoomTimer = new Timer(20, new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					repaintMap();
+				}
+			});
+			zoomTimer.setRepeats(false);
 		}		
 
 		@Override
@@ -784,74 +2031,28 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 			if (currentMapData == null) return;
 			int W = this.getWidth();
 			int H = this.getHeight();
-			if (image == null) {
-				image = new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB);
-			}
-			
-			MapData mapData = currentMapData;
-			
+
 			Graphics2D g2 = (Graphics2D) gr;
 			g2.setFont(font);
 			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 			g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-			for (int i = 0; i < W; i++) for (int j = 0; j < H; j++) {
-				int c = invalidColor;
-				int mapI = (int)((i - x0) * scale);
-				int mapJ = (int)((j - y0) * scale);
-				
-				if (mapI >= 0 && mapJ >= 0 && mapI < mapData.W && mapJ < mapData.H) {
-					c = mapData.pixels[mapI][mapJ];
-				}
-				image.setRGB(i, j, c);
-			}
+			renderImage(W, H);
 			g2.drawImage(image, 0, 0, null);
-			
 			if (showBoxesCb.isSelected() && currentBoxes != null) {
-				for (Box b: currentBoxes) {
-					double minx = b.box[0] / scale + x0;
-					if (minx > this.getWidth()) continue;
-					double maxx = (b.box[0] + b.box[2]) / scale + x0;
-					if (maxx < 0) continue;
-					double miny = b.box[1] / scale + y0;
-					if (miny > this.getHeight()) continue;
-					double maxy = (b.box[1] + b.box[3]) / scale + y0;
-					if (maxy < 0) continue;
-					int x = (int)(minx);
-					int y = (int)(miny);
-					int w = (int)(maxx - x);
-					int h = (int)(maxy - y);
-					
-					g2.setColor(borderColorBlack);
-					g2.drawRect(x-1, y-1, w+2, h+2);
-					g2.setColor(borderColorWhite);
-					g2.drawRect(x, y, w, h);
-					
-					if (showLabelsCb.isSelected()) {
-						String label = b.category;
-						if (b.guess != null && !b.guess.equals(b.category)) {
-							label += ARROW + b.guess; 
-						}
-						
-						w = textWidth(label, g2) + 2*M;
-						h = font.getSize() + 2*M;
-						g2.setColor(borderColorWhite);
-						g2.fillRect(x, y, w, h);
-						g2.setColor(textColor);
-						g2.drawString(label, x+M, y+h-M);
-					}
-					if (showBoxIdsCb.isSelected()) {
-						String label = b.ID + "";
-						w = textWidth(label, g2) + 2*M;
-						h = font.getSize() + 2*M;
-						g2.setColor(borderColorWhite);
-						int yRect = (int)(maxy) - h;
-						g2.fillRect(x, yRect, w, h);
-						g2.setColor(textColor);
-						g2.drawString(label, x+M, yRect+h-M);
-					}
+				int flags = (showLabelsCb.isSelected() ? 1 : 0) | (showBoxIdsCb.isSelected() ? 2 : 0);
+				int mx = W / 2;
+				int my = H / 2;
+				if (overlay == null || overlay.getWidth() != W + 2*mx || overlay.getHeight() != H + 2*my
+						|| overlayScale != scale || overlayBoxes != currentBoxes || overlayFlags != flags
+						|| Math.abs(x0 - overlayX0) > mx || Math.abs(y0 - overlayY0) > my) {
+					renderOverlay(W + 2*mx, H + 2*my, mx, my, flags);
 				}
+				// a pan only moves the cached layer
+				int dx = (int) Math.round(x0 - overlayX0);
+				int dy = (int) Math.round(y0 - overlayY0);
+				g2.drawImage(overlay, dx - mx, dy - my, null);
 			}
-			
+
 			int rulerW = (int) (rulerLengths[rulerIndex] / currentGsd / scale);
 			if (rulerW < W/2 && rulerW > 3*M) {
 				String label = rulerLabels[rulerIndex];
@@ -865,11 +2066,157 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 			}
 		}
 
-		
+		// The rendered pixels are kept between paints. A pan shifts them by the pan distance and renders
+		// only the exposed strips, a repaint without pan or zoom renders nothing.
+		private void renderImage(int W, int H) {
+			MapData mapData = currentMapData;
+			int[][] l = lut;
+			boolean valid = image != null && image.getWidth() == W && image.getHeight() == H
+					&& imageMapData == mapData && imageScale == scale && imageLut == l;
+			double ddx = x0 - imageX0;
+			double ddy = y0 - imageY0;
+			int dx = (int) Math.round(ddx);
+			int dy = (int) Math.round(ddy);
+			if (Math.abs(ddx - dx) > 1e-6 || Math.abs(ddy - dy) > 1e-6 || Math.abs(dx) >= W || Math.abs(dy) >= H) {
+				valid = false;
+			}
+			if (image == null || image.getWidth() != W || image.getHeight() != H) {
+				image = new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB);
+			}
+			int[] buf = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			imageLut = l;
+			if (!valid) {
+				renderPixels(buf, W, 0, W, 0, H);
+			}
+			else if (dx != 0 || dy != 0) {
+				shiftPixels(buf, W, H, dx, dy);
+				if (dx > 0) renderPixels(buf, W, 0, dx, 0, H);
+				if (dx < 0) renderPixels(buf, W, W + dx, W, 0, H);
+				if (dy > 0) renderPixels(buf, W, 0, W, 0, dy);
+				if (dy < 0) renderPixels(buf, W, 0, W, H + dy, H);
+			}
+			imageMapData = mapData;
+			imageScale = scale;
+			imageX0 = x0;
+			imageY0 = y0;
+		}
+
+		// Colors go through imageLut if there's one, so adjusting them needs no new copy of the image.
+		private void renderPixels(int[] buf, int W, int iFrom, int iTo, int jFrom, int jTo) {
+			MapData mapData = currentMapData;
+			int[] lr = null, lg = null, lb = null;
+			if (imageLut != null) {
+				lr = imageLut[0];
+				lg = imageLut[1];
+				lb = imageLut[2];
+			}
+			for (int j = jFrom; j < jTo; j++) {
+				int mapJ = (int)((j - y0) * scale);
+				boolean validRow = mapJ >= 0 && mapJ < mapData.H;
+				int pos = j * W + iFrom;
+				for (int i = iFrom; i < iTo; i++) {
+					int c = invalidColor;
+					int mapI = (int)((i - x0) * scale);
+					if (validRow && mapI >= 0 && mapI < mapData.W) {
+						c = mapData.pixels[mapI][mapJ];
+						if (lr != null) c = lr[(c >> 16) & 255] | lg[(c >> 8) & 255] | lb[c & 255];
+					}
+					buf[pos++] = c;
+				}
+			}
+		}
+
+		// moves the content of the buffer by (dx, dy), like Graphics.copyArea()
+		private void shiftPixels(int[] buf, int W, int H, int dx, int dy) {
+			int w = W - Math.abs(dx);
+			int srcX = Math.max(0, -dx);
+			int dstX = Math.max(0, dx);
+			if (dy >= 0) {
+				for (int j = H - 1; j >= dy; j--) System.arraycopy(buf, (j - dy) * W + srcX, buf, j * W + dstX, w);
+			}
+			else {
+				for (int j = 0; j < H + dy; j++) System.arraycopy(buf, (j - dy) * W + srcX, buf, j * W + dstX, w);
+			}
+		}
+
+		// Draws boxes and labels into a translucent layer that covers the view plus a margin of
+		// (mx, my) on each side. It is redrawn only if zoom, boxes or switches change, or a pan leaves the margin.
+		private void renderOverlay(int LW, int LH, int mx, int my, int flags) {
+			if (overlay == null || overlay.getWidth() != LW || overlay.getHeight() != LH) {
+				overlay = new BufferedImage(LW, LH, BufferedImage.TYPE_INT_ARGB);
+			}
+			overlayScale = scale;
+			overlayBoxes = currentBoxes;
+			overlayFlags = flags;
+			overlayX0 = x0;
+			overlayY0 = y0;
+
+			Graphics2D g2 = overlay.createGraphics();
+			g2.setComposite(AlphaComposite.Clear);
+			g2.fillRect(0, 0, LW, LH);
+			g2.setComposite(AlphaComposite.SrcOver);
+			g2.setFont(font);
+			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+			// layer coordinates of the image's top left corner
+			double ox = x0 + mx;
+			double oy = y0 + my;
+			int[] visible = currentBoxGrid.query(-ox * scale, -oy * scale, (LW - ox) * scale, (LH - oy) * scale);
+			for (int index: visible) {
+				Box b = currentBoxes[index];
+				double minx = b.box[0] / scale + ox;
+				double maxx = (b.box[0] + b.box[2]) / scale + ox;
+				double miny = b.box[1] / scale + oy;
+				double maxy = (b.box[1] + b.box[3]) / scale + oy;
+				int x = (int)(minx);
+				int y = (int)(miny);
+				int w = (int)(maxx - x);
+				int h = (int)(maxy - y);
+
+				g2.setColor(borderColorBlack);
+				g2.drawRect(x-1, y-1, w+2, h+2);
+				g2.setColor(borderColorWhite);
+				g2.drawRect(x, y, w, h);
+
+				if ((flags & 1) != 0) {
+					String label = b.category;
+					if (b.guess != null && !b.guess.equals(b.category)) {
+						label += ARROW + b.guess;
+					}
+
+					w = textWidth(label, g2) + 2*M;
+					h = font.getSize() + 2*M;
+					g2.setColor(borderColorWhite);
+					g2.fillRect(x, y, w, h);
+					g2.setColor(textColor);
+					g2.drawString(label, x+M, y+h-M);
+				}
+				if ((flags & 2) != 0) {
+					String label = b.ID + "";
+					w = textWidth(label, g2) + 2*M;
+					h = font.getSize() + 2*M;
+					g2.setColor(borderColorWhite);
+					int yRect = (int)(maxy) - h;
+					g2.fillRect(x, yRect, w, h);
+					g2.setColor(textColor);
+					g2.drawString(label, x+M, yRect+h-M);
+				}
+			}
+			g2.dispose();
+		}
+
+		// label widths are measured only once per string
 		private int textWidth(String text, Graphics2D g) {
-			FontRenderContext context = g.getFontRenderContext();
-			Rectangle2D r = font.getStringBounds(text, context);
-			return (int) r.getWidth();
+			Integer w = textWidths.get(text);
+			if (w == null) {
+				if (textWidths.size() > 100000) textWidths.clear();
+				FontRenderContext context = g.getFontRenderContext();
+				Rectangle2D r = font.getStringBounds(text, context);
+				w = (int) r.getWidth();
+				textWidths.put(text, w);
+			}
+			return w;
 		}
 
 		@Override
@@ -891,6 +2238,7 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 
 		@Override
 		public void mousePressed(java.awt.event.MouseEvent e) {
+			if (currentMapData == null) return; // no image yet, scale isn't set
 			int x = e.getX();
 			int y = e.getY();
 			mouseX = x;
@@ -900,6 +2248,7 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 		
 		@Override
 		public void mouseDragged(java.awt.event.MouseEvent e) {
+			if (currentMapData == null) return;
 			int x = e.getX();
 			int y = e.getY();
 			x0 += x - mouseX;
@@ -919,12 +2268,20 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 			String info = "";
 			if (i >= 0 && j >= 0 && i < currentMapData.W && j < currentMapData.H) {
 				info = i + ", " + j;
+				if (currentBoxGrid != null) {
+					int[] hits = currentBoxGrid.query(i, j, i, j);
+					if (hits.length > 0) {
+						Box b = currentBoxes[hits[hits.length - 1]]; // the one drawn on top
+						info += "  [" + b.ID + " " + b.category + "]";
+					}
+				}
 			}
 			xyInfoLabel.setText(" XY: " + info);
 		}
 
 		@Override
 		public void mouseWheelMoved(MouseWheelEvent e) {
+			if (currentMapData == null) return;
 			mouseX = e.getX();
 			mouseY = e.getY();
 			double dataX = (mouseX - x0) * scale;
@@ -938,7 +2295,7 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 			y0 = mouseY - dataY / scale;
 			
 			getBestRulerIndex();
-			repaintMap();
+			if (!zoomTimer.isRunning()) zoomTimer.start();
 		}
 	} // class MapView
 	
@@ -953,11 +2310,51 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 		else if (e.getSource() == errorsOnlyCb) {
 			refreshLogArea(errorsOnlyCb.isSelected());
 		}
+		else if (e.getSource() == preloadViewsCb) {
+			blinkCb.setEnabled(preloadViewsCb.isSelected());
+			if (preloadViewsCb.isSelected()) {
+				preloadViews(currentScene);
+			}
+			else {
+				blinkCb.setSelected(false);
+				blinkTimer.stop();
+			}
+		}
+		else if (e.getSource() == blinkCb) {
+			if (blinkCb.isSelected()) blinkTimer.start();
+			else blinkTimer.stop();
+		}
+		else if (e.getSource() == blinkTimer) {
+			// flip to the next temporal view of the scene
+			if (currentScene < 0) return; // none is shown yet
+			int[] tList = scenes.getViews(currentScene);
+			if (tList.length < 2) return;
+			int index = 0;
+			while (index < tList.length && tList[index] != currentT) index++;
+			int next = tList[(index + 1) % tList.length];
+			loadImage(next);
+			repaintMap();
+		}
+		else if (e.getSource() == searchTimer) {
+			searchScenes();
+		}
+		else if (e.getSource() == loadTimer) {
+			streamScenes();
+		}
+		else if (e.getSource() == stretchCb) {
+			updateLut();
+			repaintMap();
+		}
+		else if (e.getSource() == showMetaDataCb) {
+			infoScrollPane.setVisible(showMetaDataCb.isSelected());
+			controlsPanel.revalidate();
+			showMetaData();
+		}
 	}
 
 	@Override
 	public void mouseClicked(MouseEvent e) {
-		if (e.getSource() != logArea) return;
+		if (e.getSource() != logArea || scenes == null) return; // the scene table is created when reading starts
 		try {
 			int lineIndex = logArea.getLineOfOffset(logArea.getCaretPosition());
 			int start = logArea.getLineStartOffset(lineIndex);
@@ -970,8 +2367,9 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 			String[] parts = line.split(" ");
 			if (parts.length < 2) return;
 			String id = parts[0];
-			Scene scene = sceneIdToScene.get(id);
-			if (scene == null) return;
+			int scene = scenes.find(id);
+			if (scene < 0) return;
+			int[] tList = scenes.getViews(scene);
 			int len = parts[0].length();
 			int tIndex = 0; 
 			for (int i = 1; i < parts.length; i++) {
@@ -981,11 +2379,12 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 					break;
 				}
 			}
-			if (tIndex >= scene.tList.size()) {
-				tIndex = scene.tList.size()-1;
+			if (tIndex >= tList.length) {
+				tIndex = tList.length-1;
 			}
 			currentScene = scene;
-			loadImage(scene.tList.get(tIndex));
+			preloadViews(scene);
+			loadImage(tList[tIndex]);
 			repaintMap();
 		} 
 		catch (Exception ex) {
@@ -1003,6 +2402,8 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 	public void mouseExited(MouseEvent e) {}
 	
 	private void log(String s) {
+		if (quiet) return;
+		logText.append(s).append("\n");
 		if (logArea != null) logArea.append(s + "\n");
 		System.out.println(s);
 	}
@@ -1019,6 +2420,8 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 		}
 		
 		FmowVisualizer v = new FmowVisualizer();
+		v.generator = new DatasetGenerator(v);
+		v.chipExporter = new ChipExporter();
 		v.hasGui = true;
 		int w = 1500;
 		
@@ -1051,15 +2454,72 @@ public class FmowVisualizer implements ActionListener, MouseListener {
 			if (args[i].equals("-no-gui")) v.hasGui = false;
 			if (args[i].equals("-w")) w = Integer.parseInt(args[i+1]);
 			if (args[i].equals("-solution")) v.solutionPath = args[i+1];
+			if (args[i].equals("-diff-solution")) v.diffSolutionPath = args[i+1];
+			if (args[i].equals("-solution-stream")) v.solutionStreamPath = args[i+1];
+			if (args[i].equals("-subset")) v.subsetScoring = true;
+			if (args[i].equals("-solution-bin")) v.solutionBinPath = args[i+1];
+			if (args[i].equals("-solution-text")) v.solutionTextPath = args[i+1];
+			if (args[i].equals("-stream-interval")) v.streamIntervalSec = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-stream-timeout")) v.streamTimeoutSec = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-generate")) v.generateDir = args[i+1];
+			if (args[i].equals("-gen-scenes")) v.generator.sceneCnt = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-gen-views")) v.generator.maxViews = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-gen-boxes")) v.generator.maxBoxes = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-gen-skew")) v.generator.skew = Double.parseDouble(args[i+1]);
+			if (args[i].equals("-gen-error-rate")) v.generator.errorRate = Double.parseDouble(args[i+1]);
+			if (args[i].equals("-gen-image-size")) v.generator.imageSize = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-gen-seed")) v.generator.seed = Long.parseLong(args[i+1]);
 			if (args[i].equals("-data-dir")) v.dataDir = args[i+1];
 			if (args[i].equals("-no-ms")) v.useMsData = false;
 			if (args[i].equals("-max-per-cat")) v.maxNperCategory = Integer.parseInt(args[i+1]);
 			if (args[i].equals("-scene-filter")) v.sceneFilter = args[i+1];
+			if (args[i].equals("-sample-seed")) v.sampleSeed = Long.parseLong(args[i+1]);
+			if (args[i].equals("-group-by")) v.groupBy = args[i+1];
+			if (args[i].equals("-group-by-out")) v.groupByOutPath = args[i+1];
+			if (args[i].equals("-partial-out")) v.partialOutPath = args[i+1];
+			if (args[i].equals("-merge")) v.mergePaths = args[i+1];
+			if (args[i].equals("-chips")) v.chipDir = args[i+1];
+			if (args[i].equals("-chip-margin")) v.chipExporter.margin = Double.parseDouble(args[i+1]);
+			if (args[i].equals("-chip-size")) v.chipExporter.size = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-chip-threads")) v.chipExporter.threads = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-bench")) v.benchOutPath = args[i+1];
+			if (args[i].equals("-bench-baseline")) v.benchBaselinePath = args[i+1];
+			if (args[i].equals("-bench-threshold")) v.benchThreshold = Double.parseDouble(args[i+1]);
+			if (args[i].equals("-bench-scenes")) v.benchScenes = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-bench-runs")) v.benchRuns = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-http-cache")) v.httpCacheDir = args[i+1];
+			if (args[i].equals("-http-cache-mb")) v.httpCacheMb = Long.parseLong(args[i+1]);
+			if (args[i].equals("-serve")) v.servePort = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-serve-latency")) v.serveLatencyMs = Integer.parseInt(args[i+1]);
 		}
 		
-		if (v.dataDir == null) {
+		if (v.generateDir != null) {
+			v.hasGui = false;
+			v.generator.useMsData = v.useMsData;
+			if (v.generator.sceneCnt < 1) exit("-gen-scenes must be at least 1");
+			if (v.generator.maxViews < 1) exit("-gen-views must be at least 1");
+			if (v.generator.maxBoxes < 1) exit("-gen-boxes must be at least 1");
+			if (v.generator.imageSize < 16) exit("-gen-image-size must be at least 16");
+			if (v.generator.errorRate < 0 || v.generator.errorRate > 1) exit("-gen-error-rate must be between 0 and 1");
+		}
+		else if (v.mergePaths != null) {
+			v.hasGui = false;
+		}
+		else if (v.solutionBinPath != null || v.solutionTextPath != null) {
+			v.hasGui = false;
+		}
+		else if (v.dataDir == null) {
 			exit("Data folder not set, use -data-dir");
 		}
+		if (v.chipDir != null || v.benchOutPath != null) {
+			v.hasGui = false;
+		}
+		
+		if (v.servePort > 0) {
+			new LocalHttpServer(new File(v.dataDir), v.servePort, v.serveLatencyMs).start();
+			v.log("Serving " + v.dataDir + " at http://localhost:" + v.servePort + "/");
+			return;
+		}
 		
 		if (v.createTOC) {
 			v.log("Creating TOC file, ignoring all other settings");
@@ -0,0 +1,491 @@
+package visualizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Data set in an object store, read over plain HTTP(S) from a base URL such as
+ * https://bucket.example.com/fmow-rgb/train/. Object stores can't list folders, so the scene
+ * list comes from the TOC files (toc.txt, toc.idx, toc.boxes) which are downloaded next to the
+ * block cache.
+ *
+ * Objects are read in blocks with range requests. Once the size of an object is known, its
+ * remaining blocks are fetched concurrently. Blocks are kept in a local cache folder bounded by
+ * size, the least recently used ones are deleted first.
+ *
+ * A cached block is stored with the size and the version (ETag, or else Last-Modified) of the
+ * object it was read from. Once a response shows that an object has changed on the server, its
+ * cached blocks are deleted, so that the blocks of two versions are never mixed.
+ */
+public class HttpDataSource extends DataSource {
+	public static final int BLOCK_SIZE = 1 << 20;
+	private static final int THREADS = 4;
+	private static final int PREFETCH_WINDOW = 4 * THREADS; // objects requested ahead of the one being read
+	private static final int BLOCK_MAGIC = 0x464d4231; // FMB1, the header of a cached block file
+	private static final String[] SIDE_FILES = {FmowVisualizer.TOC_FILE_NAME, FmowVisualizer.TOC_INDEX_FILE_NAME,
+			FmowVisualizer.BOX_INDEX_FILE_NAME};
+
+	private String base; // ends with '/'
+	private File cacheDir;
+	private File blockDir;
+	private long cacheLimit;
+	private long cacheUsed = 0;
+	private Map<String, Long> cachedBlocks = new LinkedHashMap<>(16, 0.75f, true); // file name -> size, access order
+	private Map<String, Future<Block>> pending = new HashMap<>(); // blocks being fetched
+	private Map<String, Long> objectSizes = new ConcurrentHashMap<>();
+	private Map<String, String> versions = new ConcurrentHashMap<>(); // path -> the version seen in this run
+	private Map<String, Boolean> existing = new ConcurrentHashMap<>();
+	private ExecutorService executor;
+	private List<String> prefetchPaths = new ArrayList<>(); // see prefetch(Collection)
+	private Map<String, Integer> prefetchPositions = new HashMap<>();
+	private int prefetchNext = 0; // the next one of prefetchPaths to request
+
+	/**
+	 * cacheDir may be null, then a folder named after the URL is used in the system's temp folder.
+	 */
+	public HttpDataSource(String url, File cacheDir, long cacheLimit) throws IOException {
+		base = url.endsWith("/") ? url : url + "/";
+		if (cacheDir == null) {
+			String name = base.replaceFirst("^https?://", "").replaceAll("[^A-Za-z0-9._-]+", "_");
+			cacheDir = new File(new File(System.getProperty("java.io.tmpdir"), "fmow-cache"), name);
+		}
+		this.cacheDir = cacheDir;
+		this.cacheLimit = cacheLimit;
+		blockDir = new File(cacheDir, "blocks");
+		if (!blockDir.isDirectory() && !blockDir.mkdirs()) {
+			throw new IOException("Can't create cache folder " + blockDir.getAbsolutePath());
+		}
+		// blocks cached by earlier runs, oldest first
+		File[] files = blockDir.listFiles();
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		for (File f: files) {
+			if (f.getName().endsWith(".tmp")) f.delete();
+			else added(f.getName(), f.length());
+		}
+		executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "http-fetch");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		for (String name: SIDE_FILES) downloadSideFile(name);
+	}
+
+	// Refreshes a local copy of a TOC file if the remote one is newer. Missing ones are not an error.
+	private void downloadSideFile(String name) throws IOException {
+		File local = getSideFile(name);
+		HttpURLConnection con = (HttpURLConnection) new URL(base + name).openConnection();
+		if (local.exists()) con.setIfModifiedSince(local.lastModified());
+		int code = con.getResponseCode();
+		if (code == HttpURLConnection.HTTP_NOT_MODIFIED || code == HttpURLConnection.HTTP_NOT_FOUND) {
+			return;
+		}
+		if (code != HttpURLConnection.HTTP_OK) {
+			con.disconnect();
+			throw new IOException("HTTP " + code + " for " + base + name);
+		}
+		File tmp = new File(cacheDir, name + ".tmp");
+		try (InputStream in = con.getInputStream(); OutputStream out = new FileOutputStream(tmp)) {
+			byte[] buf = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+		}
+		Files.move(tmp.toPath(), local.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		if (con.getLastModified() > 0) local.setLastModified(con.getLastModified());
+	}
+
+	private URL getUrl(String path) throws IOException {
+		StringBuilder sb = new StringBuilder(base);
+		String[] parts = path.split("/");
+		for (int i = 0; i < parts.length; i++) {
+			if (i > 0) sb.append('/');
+			sb.append(URLEncoder.encode(parts[i], "UTF-8").replace("+", "%20"));
+		}
+		return new URL(sb.toString());
+	}
+
+	private static String blockName(String path, int index) {
+		return blockPrefix(path) + index;
+	}
+
+	// The common start of the cache file names of an object's blocks.
+	private static String blockPrefix(String path) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] hash = md.digest(path.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder();
+			for (byte b: hash) sb.append(String.format("%02x", b));
+			return sb.append('_').toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public DirectoryStream<String> list(String dir) throws IOException {
+		throw new IOException("Folders can't be listed over HTTP, a " + FmowVisualizer.TOC_FILE_NAME + " is needed at " + base);
+	}
+
+	@Override
+	public boolean isDirectory(String path) {
+		return false;
+	}
+
+	@Override
+	public boolean exists(String path) {
+		Boolean e = existing.get(path);
+		if (e != null) return e;
+		try {
+			HttpURLConnection con = (HttpURLConnection) getUrl(path).openConnection();
+			con.setRequestMethod("HEAD");
+			e = con.getResponseCode() == HttpURLConnection.HTTP_OK;
+			if (e && con.getContentLengthLong() >= 0) objectSizes.put(path, con.getContentLengthLong());
+			if (e) checkVersion(path, getVersion(con));
+		}
+		catch (IOException ex) {
+			return false;
+		}
+		existing.put(path, e);
+		return e;
+	}
+
+	@Override
+	public InputStream open(String path) throws IOException {
+		advancePrefetch(path);
+		// fail here and not at the first read if the object is missing
+		Block first = getBlock(path, 0);
+		return new BlockInputStream(path, first);
+	}
+
+	@Override
+	public File getSideFile(String name) {
+		return new File(cacheDir, name);
+	}
+
+	@Override
+	public void close() throws IOException {
+		executor.shutdownNow();
+	}
+
+	private Block getBlock(String path, int index) throws IOException {
+		try {
+			return requestBlock(path, index).get();
+		}
+		catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	// Concurrent requests of the same block share one fetch.
+	private synchronized Future<Block> requestBlock(final String path, final int index) {
+		final String name = blockName(path, index);
+		Future<Block> f = pending.get(name);
+		if (f != null) return f;
+		f = executor.submit(new Callable<Block>() {
+			@Override
+			public Block call() throws Exception {
+				try {
+					Block b = readCachedBlock(name);
+					if (b != null) {
+						String known = versions.get(path);
+						if (known != null && !sameVersion(known, b.version)) {
+							b = null; // from an older version of the object, replaced below
+						}
+						else {
+							versions.putIfAbsent(path, b.version);
+						}
+					}
+					if (b == null) {
+						b = fetchBlock(path, index);
+						checkVersion(path, b.version);
+						writeCachedBlock(name, b);
+					}
+					if (b.size >= 0) objectSizes.put(path, b.size);
+					return b;
+				}
+				finally {
+					removePending(name);
+				}
+			}
+		});
+		pending.put(name, f);
+		return f;
+	}
+
+	private synchronized void removePending(String name) {
+		pending.remove(name);
+	}
+
+	/**
+	 * Fetches the first block of the objects in the background, in the given order. Only a window
+	 * of PREFETCH_WINDOW objects is requested ahead of the last one opened, so that a long list
+	 * neither floods the queue nor pushes its own blocks out of the cache before they are read.
+	 */
+	@Override
+	public synchronized void prefetch(Collection<String> paths) {
+		prefetchPaths = new ArrayList<>(paths);
+		prefetchPositions = new HashMap<>();
+		for (int i = prefetchPaths.size() - 1; i >= 0; i--) prefetchPositions.put(prefetchPaths.get(i), i);
+		prefetchNext = 0;
+		fillPrefetchWindow(-1);
+	}
+
+	// Moves the prefetch window if the object is on the prefetch list.
+	private synchronized void advancePrefetch(String path) {
+		Integer pos = prefetchPositions.get(path);
+		if (pos != null) fillPrefetchWindow(pos);
+	}
+
+	private void fillPrefetchWindow(int pos) {
+		prefetchNext = Math.max(prefetchNext, pos + 1);
+		int end = Math.min(prefetchPaths.size(), pos + 1 + PREFETCH_WINDOW);
+		for (; prefetchNext < end; prefetchNext++) {
+			String path = prefetchPaths.get(prefetchNext);
+			if (!cachedBlocks.containsKey(blockName(path, 0))) requestBlock(path, 0);
+		}
+		if (prefetchNext >= prefetchPaths.size()) { // all requested
+			prefetchPaths = new ArrayList<>();
+			prefetchPositions = new HashMap<>();
+			prefetchNext = 0;
+		}
+	}
+
+	// Starts fetching the next blocks of an object in the background.
+	private synchronized void prefetch(String path, int fromIndex) {
+		Long size = objectSizes.get(path);
+		if (size == null) return;
+		int blockCnt = (int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+		for (int i = fromIndex; i < blockCnt && i < fromIndex + THREADS; i++) {
+			if (!cachedBlocks.containsKey(blockName(path, i))) requestBlock(path, i);
+		}
+	}
+
+	// The version of the object in a response, "" if the server sends neither ETag nor Last-Modified.
+	private static String getVersion(HttpURLConnection con) {
+		String v = con.getHeaderField("ETag");
+		if (v == null) v = con.getHeaderField("Last-Modified");
+		return v == null ? "" : v;
+	}
+
+	private static boolean sameVersion(String a, String b) {
+		return a.isEmpty() || b.isEmpty() || a.equals(b);
+	}
+
+	// Records the version of the object in a response, deletes its cached blocks if it has changed.
+	private synchronized void checkVersion(String path, String version) {
+		String old = versions.put(path, version);
+		if (old == null || sameVersion(old, version)) return;
+		objectSizes.remove(path);
+		String prefix = blockPrefix(path);
+		Iterator<Map.Entry<String, Long>> it = cachedBlocks.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Long> e = it.next();
+			if (!e.getKey().startsWith(prefix)) continue;
+			new File(blockDir, e.getKey()).delete();
+			cacheUsed -= e.getValue();
+			it.remove();
+		}
+	}
+
+	// Connections are not disconnected after successful requests, so that they are kept alive and reused.
+	private Block fetchBlock(String path, int index) throws IOException {
+		long from = (long) index * BLOCK_SIZE;
+		HttpURLConnection con = (HttpURLConnection) getUrl(path).openConnection();
+		con.setRequestProperty("Range", "bytes=" + from + "-" + (from + BLOCK_SIZE - 1));
+		int code = con.getResponseCode();
+		Block b = new Block();
+		b.version = getVersion(con);
+		if (code == 416) { // range not satisfiable: the object ends at a block boundary
+			con.disconnect();
+			b.data = new byte[0];
+			return b;
+		}
+		if (code != HttpURLConnection.HTTP_PARTIAL && code != HttpURLConnection.HTTP_OK) {
+			con.disconnect();
+			if (code == HttpURLConnection.HTTP_NOT_FOUND) throw new FileNotFoundException(path);
+			throw new IOException("HTTP " + code + " for " + path);
+		}
+		long skip = 0;
+		String range = con.getHeaderField("Content-Range"); // bytes 0-1048575/2345678
+		if (code == HttpURLConnection.HTTP_PARTIAL && range != null && range.indexOf('/') > 0) {
+			String total = range.substring(range.indexOf('/') + 1).trim();
+			if (!total.equals("*")) b.size = Long.parseLong(total);
+		}
+		else {
+			// the server ignored the range and sends the whole object
+			b.size = con.getContentLengthLong();
+			skip = from;
+		}
+		try (InputStream in = con.getInputStream()) {
+			while (skip > 0) {
+				long n = in.skip(skip);
+				if (n <= 0) {
+					b.data = new byte[0];
+					return b;
+				}
+				skip -= n;
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream(BLOCK_SIZE);
+			byte[] buf = new byte[64 * 1024];
+			while (out.size() < BLOCK_SIZE) {
+				int n = in.read(buf, 0, Math.min(buf.length, BLOCK_SIZE - out.size()));
+				if (n < 0) break;
+				out.write(buf, 0, n);
+			}
+			b.data = out.toByteArray();
+			return b;
+		}
+	}
+
+	// A cached block file: int magic, UTF version, long object size (-1 if unknown), the data.
+	private Block readCachedBlock(String name) {
+		synchronized (this) {
+			if (cachedBlocks.get(name) == null) return null; // get() also marks the block as recently used
+		}
+		File f = new File(blockDir, name);
+		try {
+			byte[] bytes = Files.readAllBytes(f.toPath());
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			if (in.readInt() != BLOCK_MAGIC) return null; // written by an older version, fetch it again
+			Block b = new Block();
+			b.version = in.readUTF();
+			b.size = in.readLong();
+			b.data = Arrays.copyOfRange(bytes, bytes.length - in.available(), bytes.length);
+			f.setLastModified(System.currentTimeMillis());
+			return b;
+		}
+		catch (IOException e) {
+			return null; // deleted meanwhile, fetch it again
+		}
+	}
+
+	private void writeCachedBlock(String name, Block b) {
+		File tmp = new File(blockDir, name + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+				out.writeInt(BLOCK_MAGIC);
+				out.writeUTF(b.version);
+				out.writeLong(b.size);
+				out.write(b.data);
+			}
+			Files.move(tmp.toPath(), new File(blockDir, name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			added(name, new File(blockDir, name).length());
+		}
+		catch (IOException e) {
+			// not fatal, the block is fetched again next time
+			tmp.delete();
+		}
+	}
+
+	private synchronized void added(String name, long size) {
+		Long old = cachedBlocks.put(name, size);
+		if (old != null) cacheUsed -= old;
+		cacheUsed += size;
+		Iterator<Map.Entry<String, Long>> it = cachedBlocks.entrySet().iterator();
+		while (cacheUsed > cacheLimit && it.hasNext()) {
+			Map.Entry<String, Long> e = it.next();
+			if (e.getKey().equals(name)) continue;
+			new File(blockDir, e.getKey()).delete();
+			cacheUsed -= e.getValue();
+			it.remove();
+		}
+	}
+
+	private static class Block {
+		byte[] data;
+		String version; // of the object, see getVersion()
+		long size = -1; // of the object
+	}
+
+	// Reads an object block by block, asking for the following blocks before they are needed.
+	private class BlockInputStream extends InputStream {
+		private String path;
+		private String version;
+		private byte[] block;
+		private int index = 0;
+		private int pos = 0;
+
+		public BlockInputStream(String path, Block first) {
+			this.path = path;
+			this.version = first.version;
+			this.block = first.data;
+			prefetch(path, 1);
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return n < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			while (pos >= block.length) {
+				if (block.length < BLOCK_SIZE) return -1; // the last block is shorter
+				index++;
+				Block next = getBlock(path, index);
+				if (!sameVersion(version, next.version)) {
+					// the earlier blocks are of the old version, which is no longer cached
+					throw new IOException(path + " was changed on the server while it was read");
+				}
+				block = next.data;
+				pos = 0;
+				prefetch(path, index + 1);
+				if (block.length == 0) return -1;
+			}
+			int n = Math.min(len, block.length - pos);
+			System.arraycopy(block, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package visualizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a local data folder over HTTP with GET, HEAD and single range requests, as a stand-in
+ * for an object store when testing HttpDataSource (-serve). An artificial latency can be added
+ * to each request to see the effect of prefetching and caching.
+ */
+public class LocalHttpServer {
+	private File root;
+	private int latencyMs;
+	private HttpServer server;
+
+	public LocalHttpServer(File root, int port, int latencyMs) throws IOException {
+		this.root = root.getCanonicalFile();
+		this.latencyMs = latencyMs;
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				try {
+					serve(ex);
+				}
+				finally {
+					ex.close();
+				}
+			}
+		});
+		server.setExecutor(Executors.newFixedThreadPool(16));
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+	private void serve(HttpExchange ex) throws IOException {
+		if (latencyMs > 0) {
+			try {
+				Thread.sleep(latencyMs);
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+		}
+		String method = ex.getRequestMethod();
+		boolean head = method.equals("HEAD");
+		if (!head && !method.equals("GET")) {
+			ex.sendResponseHeaders(405, -1);
+			return;
+		}
+		String path = URLDecoder.decode(ex.getRequestURI().getRawPath(), "UTF-8");
+		File f = new File(root, path).getCanonicalFile();
+		if (!f.getPath().startsWith(root.getPath()) || !f.isFile()) {
+			ex.sendResponseHeaders(404, -1);
+			return;
+		}
+		long len = f.length();
+		long modified = f.lastModified() / 1000 * 1000; // HTTP dates have seconds only
+		SimpleDateFormat fmt = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+		String since = ex.getRequestHeaders().getFirst("If-Modified-Since");
+		if (since != null) {
+			try {
+				if (fmt.parse(since).getTime() >= modified) {
+					ex.sendResponseHeaders(304, -1);
+					return;
+				}
+			}
+			catch (java.text.ParseException e) {
+				// ignore the header
+			}
+		}
+		ex.getResponseHeaders().set("Last-Modified", fmt.format(new Date(modified)));
+		ex.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+		long from = 0;
+		long to = len - 1;
+		int code = 200;
+		String range = ex.getRequestHeaders().getFirst("Range");
+		if (range != null && range.startsWith("bytes=") && range.indexOf(',') < 0) {
+			String[] fromTo = range.substring(6).split("-", -1);
+			if (fromTo[0].isEmpty()) {
+				from = Math.max(0, len - Long.parseLong(fromTo[1])); // the last n bytes
+			}
+			else {
+				from = Long.parseLong(fromTo[0]);
+				if (!fromTo[1].isEmpty()) to = Math.min(to, Long.parseLong(fromTo[1]));
+			}
+			if (from >= len) {
+				ex.getResponseHeaders().set("Content-Range", "bytes */" + len);
+				ex.sendResponseHeaders(416, -1);
+				return;
+			}
+			code = 206;
+			ex.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + len);
+		}
+		long size = to - from + 1;
+		if (head) {
+			ex.getResponseHeaders().set("Content-Length", Long.toString(size));
+			ex.sendResponseHeaders(code, -1);
+			return;
+		}
+		ex.sendResponseHeaders(code, size == 0 ? -1 : size);
+		if (size == 0) return;
+		try (RandomAccessFile in = new RandomAccessFile(f, "r"); OutputStream out = ex.getResponseBody()) {
+			in.seek(from);
+			byte[] buf = new byte[64 * 1024];
+			while (size > 0) {
+				int n = in.read(buf, 0, (int) Math.min(buf.length, size));
+				if (n < 0) break;
+				out.write(buf, 0, n);
+				size -= n;
+			}
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package visualizer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The result of scoring one shard of a data set: TP/FP/FN counts per category and the IDs of the
+ * scenes that have an error. Unlike F-scores, counts can be added, so the partial results of any
+ * number of shards merge into the exact score of the whole set (-partial-out, -merge).
+ *
+ * Stored as a gzipped binary file: magic, box count, category count, (name, tp, fp, fn) per
+ * category, scene count, scene IDs.
+ */
+public class PartialScore {
+	private static final int MAGIC = 0x46505331; // FPS1
+
+	public int boxCnt;
+	public Map<String, int[]> counts = new TreeMap<>(); // category -> {tp, fp, fn}
+	public Set<String> errorScenes = new TreeSet<>();
+
+	public void add(String category, int tp, int fp, int fn) {
+		int[] c = counts.get(category);
+		if (c == null) {
+			c = new int[3];
+			counts.put(category, c);
+		}
+		c[0] += tp;
+		c[1] += fp;
+		c[2] += fn;
+	}
+
+	public void add(PartialScore o) {
+		boxCnt += o.boxCnt;
+		for (Map.Entry<String, int[]> e: o.counts.entrySet()) {
+			int[] c = e.getValue();
+			add(e.getKey(), c[0], c[1], c[2]);
+		}
+		errorScenes.addAll(o.errorScenes);
+	}
+
+	public void write(File f) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(f))))) {
+			out.writeInt(MAGIC);
+			out.writeInt(boxCnt);
+			out.writeInt(counts.size());
+			for (Map.Entry<String, int[]> e: counts.entrySet()) {
+				out.writeUTF(e.getKey());
+				for (int v: e.getValue()) out.writeInt(v);
+			}
+			out.writeInt(errorScenes.size());
+			for (String id: errorScenes) out.writeUTF(id);
+		}
+	}
+
+	public static PartialScore read(File f) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f))))) {
+			if (in.readInt() != MAGIC) throw new IOException(f.getPath() + " is not a partial score file");
+			PartialScore p = new PartialScore();
+			p.boxCnt = in.readInt();
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String cat = in.readUTF();
+				p.add(cat, in.readInt(), in.readInt(), in.readInt());
+			}
+			n = in.readInt();
+			for (int i = 0; i < n; i++) p.errorScenes.add(in.readUTF());
+			return p;
+		}
+	}
+}
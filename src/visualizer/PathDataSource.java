@@ -0,0 +1,89 @@
+package visualizer;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Data set stored in a folder of the default file system, or in a zip archive opened as a
+ * zip file system. The zip provider reads the central directory once and accesses members by offset.
+ */
+public class PathDataSource extends DataSource {
+	private Path root;
+	private FileSystem fs; // closed together with this source, null for the default file system
+	private File archive;  // null for plain folders
+
+	public PathDataSource(Path root, FileSystem fs, File archive) {
+		this.root = root;
+		this.fs = fs;
+		this.archive = archive;
+	}
+
+	private Path resolve(String path) {
+		return path.isEmpty() ? root : root.resolve(path);
+	}
+
+	@Override
+	public DirectoryStream<String> list(String dir) throws IOException {
+		final DirectoryStream<Path> ds = Files.newDirectoryStream(resolve(dir));
+		return new DirectoryStream<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				final Iterator<Path> it = ds.iterator();
+				return new Iterator<String>() {
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+					@Override
+					public String next() {
+						String name = it.next().getFileName().toString();
+						// zip directory entries may come with a trailing separator
+						if (name.endsWith("/")) name = name.substring(0, name.length() - 1);
+						return name;
+					}
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+			@Override
+			public void close() throws IOException {
+				ds.close();
+			}
+		};
+	}
+
+	@Override
+	public boolean isDirectory(String path) {
+		return Files.isDirectory(resolve(path));
+	}
+
+	@Override
+	public boolean exists(String path) {
+		return Files.exists(resolve(path));
+	}
+
+	@Override
+	public InputStream open(String path) throws IOException {
+		return new BufferedInputStream(Files.newInputStream(resolve(path)));
+	}
+
+	@Override
+	public File getSideFile(String name) {
+		if (archive == null) return new File(root.toFile(), name);
+		return new File(archive.getPath() + "." + name);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (fs != null) fs.close();
+	}
+}
@@ -0,0 +1,380 @@
+package visualizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All scenes in a compact struct of arrays form, instead of one object per scene. A scene is
+ * referred to by its index, which is the order of discovery.
+ *
+ * - scene IDs are stored in one character pool, looked up with an open addressing hash table,
+ * - scene folders are an index into a table of parent folders, plus a flag telling whether the
+ *   scene's own folder (named as the scene) is appended,
+ * - temporal view IDs are chained per scene while scenes are added, and packed into one int array
+ *   with per scene offsets by pack(),
+ * - boxes (ID, category ordinal, rectangle) are chained per view,
+ * - the error flag is a bit set, guesses and diff texts are kept only for the scenes that have them.
+ *
+ * The GUI reads the table while the loader thread adds scenes, so all public methods are synchronized.
+ */
+public class SceneTable {
+	private int n = 0;
+
+	// scene IDs
+	private char[] idPool = new char[1 << 16];
+	private int poolSize = 0;
+	private int[] idStart = new int[1024];
+	private int[] idLen = new int[1024];
+	private int[] hashTable = new int[2048]; // scene index + 1, 0 is empty
+	private int[] sortedOrder; // scene indices sorted by ID, see sort()
+
+	// folders
+	private List<String> dirTable = new ArrayList<>();
+	private Map<String, Integer> dirToIndex = new HashMap<>();
+	private int[] dirIndex = new int[1024];
+	private BitSet dirHasId = new BitSet();
+
+	// temporal views, chained while adding, packed later
+	private int viewCnt = 0;
+	private int[] viewT = new int[1024];
+	private double[] viewGsd = new double[1024];
+	private int[] viewNext = new int[1024];     // next view of the same scene, -1 at the end
+	private int[] viewFirstBox = new int[1024]; // -1 if no box
+	private int[] viewLastBox = new int[1024];
+	private int[] firstView = new int[1024];
+	private int[] lastView = new int[1024];
+	private boolean packed = false;
+	private int[] viewStart; // after pack(): views of scene s are viewStart[s] .. viewStart[s+1]-1
+
+	// boxes, chained per view
+	private int boxCnt = 0;
+	private int[] boxId = new int[1024];
+	private byte[] boxCat = new byte[1024];
+	private int[] boxRect = new int[4 * 1024];
+	private int[] boxNext = new int[1024];
+
+	private BitSet errors = new BitSet();
+	private Map<Integer, String> guesses = new HashMap<>();
+	private Map<Integer, String> diffs = new HashMap<>();
+
+	public synchronized int size() {
+		return n;
+	}
+
+	/**
+	 * Returns the index of the scene, adding it if it's not known yet. dir is the scene's
+	 * folder within the data source.
+	 */
+	public synchronized int add(String id, String dir) {
+		int s = find(id);
+		if (s >= 0) return s;
+		if (packed) throw new IllegalStateException("Scene table is already packed");
+		if (n == idStart.length) {
+			int len = n * 2;
+			idStart = Arrays.copyOf(idStart, len);
+			idLen = Arrays.copyOf(idLen, len);
+			dirIndex = Arrays.copyOf(dirIndex, len);
+			firstView = Arrays.copyOf(firstView, len);
+			lastView = Arrays.copyOf(lastView, len);
+		}
+		while (poolSize + id.length() > idPool.length) idPool = Arrays.copyOf(idPool, idPool.length * 2);
+		id.getChars(0, id.length(), idPool, poolSize);
+		idStart[n] = poolSize;
+		idLen[n] = id.length();
+		poolSize += id.length();
+
+		String parent = dir;
+		if (dir.equals(id) || dir.endsWith("/" + id)) {
+			parent = dir.length() == id.length() ? "" : dir.substring(0, dir.length() - id.length() - 1);
+			dirHasId.set(n);
+		}
+		Integer di = dirToIndex.get(parent);
+		if (di == null) {
+			di = dirTable.size();
+			dirTable.add(parent);
+			dirToIndex.put(parent, di);
+		}
+		dirIndex[n] = di;
+		firstView[n] = -1;
+		lastView[n] = -1;
+		sortedOrder = null;
+		n++;
+		if (n * 2 > hashTable.length) rehash(hashTable.length * 2);
+		else insert(n - 1);
+		return n - 1;
+	}
+
+	private int hash(CharSequence s) {
+		int h = 0;
+		for (int i = 0; i < s.length(); i++) h = 31 * h + s.charAt(i);
+		return h ^ (h >>> 16);
+	}
+
+	private int hash(int s) {
+		int h = 0;
+		for (int i = idStart[s], end = idStart[s] + idLen[s]; i < end; i++) h = 31 * h + idPool[i];
+		return h ^ (h >>> 16);
+	}
+
+	private void insert(int s) {
+		int mask = hashTable.length - 1;
+		int pos = hash(s) & mask;
+		while (hashTable[pos] != 0) pos = (pos + 1) & mask;
+		hashTable[pos] = s + 1;
+	}
+
+	private void rehash(int len) {
+		hashTable = new int[len];
+		for (int s = 0; s < n; s++) insert(s);
+	}
+
+	private boolean idEquals(int s, CharSequence id) {
+		if (idLen[s] != id.length()) return false;
+		int start = idStart[s];
+		for (int i = 0; i < idLen[s]; i++) {
+			if (idPool[start + i] != id.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/** Index of the scene with the given ID, or -1. */
+	public synchronized int find(CharSequence id) {
+		int mask = hashTable.length - 1;
+		int pos = hash(id) & mask;
+		while (hashTable[pos] != 0) {
+			int s = hashTable[pos] - 1;
+			if (idEquals(s, id)) return s;
+			pos = (pos + 1) & mask;
+		}
+		return -1;
+	}
+
+	public synchronized String getId(int s) {
+		return new String(idPool, idStart[s], idLen[s]);
+	}
+
+	public synchronized String getDir(int s) {
+		String parent = dirTable.get(dirIndex[s]);
+		if (!dirHasId.get(s)) return parent;
+		return DataSource.child(parent, getId(s));
+	}
+
+	/** Adds a temporal view, gsd is NaN if it's not known. Returns the view's index. */
+	public synchronized int addView(int s, int t, double gsd) {
+		if (packed) throw new IllegalStateException("Scene table is already packed");
+		if (viewCnt == viewT.length) {
+			int len = viewCnt * 2;
+			viewT = Arrays.copyOf(viewT, len);
+			viewGsd = Arrays.copyOf(viewGsd, len);
+			viewNext = Arrays.copyOf(viewNext, len);
+			viewFirstBox = Arrays.copyOf(viewFirstBox, len);
+			viewLastBox = Arrays.copyOf(viewLastBox, len);
+		}
+		int v = viewCnt++;
+		viewT[v] = t;
+		viewGsd[v] = gsd;
+		viewNext[v] = -1;
+		viewFirstBox[v] = -1;
+		viewLastBox[v] = -1;
+		if (lastView[s] < 0) firstView[s] = v;
+		else viewNext[lastView[s]] = v;
+		lastView[s] = v;
+		return v;
+	}
+
+	public synchronized void addBox(int s, int t, int id, int cat, int[] rect) {
+		int v = findView(s, t);
+		if (v < 0) return;
+		if (boxCnt == boxId.length) {
+			int len = boxCnt * 2;
+			boxId = Arrays.copyOf(boxId, len);
+			boxCat = Arrays.copyOf(boxCat, len);
+			boxNext = Arrays.copyOf(boxNext, len);
+			boxRect = Arrays.copyOf(boxRect, 4 * len);
+		}
+		int b = boxCnt++;
+		boxId[b] = id;
+		boxCat[b] = (byte) cat;
+		System.arraycopy(rect, 0, boxRect, 4 * b, 4);
+		boxNext[b] = -1;
+		if (viewLastBox[v] < 0) viewFirstBox[v] = b;
+		else boxNext[viewLastBox[v]] = b;
+		viewLastBox[v] = b;
+	}
+
+	/**
+	 * Puts the views of each scene next to each other, so that they are found by offset
+	 * instead of following the chain. No views can be added afterwards.
+	 */
+	public synchronized void pack() {
+		if (packed) return;
+		viewStart = new int[n + 1];
+		int[] order = new int[viewCnt];
+		int k = 0;
+		for (int s = 0; s < n; s++) {
+			viewStart[s] = k;
+			for (int v = firstView[s]; v >= 0; v = viewNext[v]) order[k++] = v;
+		}
+		viewStart[n] = k;
+		int[] t = new int[k];
+		double[] gsd = new double[k];
+		int[] first = new int[k];
+		for (int i = 0; i < k; i++) {
+			t[i] = viewT[order[i]];
+			gsd[i] = viewGsd[order[i]];
+			first[i] = viewFirstBox[order[i]];
+		}
+		viewT = t;
+		viewGsd = gsd;
+		viewFirstBox = first;
+		viewCnt = k;
+		viewNext = null;
+		viewLastBox = null;
+		firstView = null;
+		lastView = null;
+		boxId = Arrays.copyOf(boxId, boxCnt);
+		boxCat = Arrays.copyOf(boxCat, boxCnt);
+		boxNext = Arrays.copyOf(boxNext, boxCnt);
+		boxRect = Arrays.copyOf(boxRect, 4 * boxCnt);
+		idPool = Arrays.copyOf(idPool, poolSize);
+		packed = true;
+	}
+
+	private int findView(int s, int t) {
+		if (packed) {
+			for (int v = viewStart[s]; v < viewStart[s + 1]; v++) {
+				if (viewT[v] == t) return v;
+			}
+		}
+		else {
+			for (int v = firstView[s]; v >= 0; v = viewNext[v]) {
+				if (viewT[v] == t) return v;
+			}
+		}
+		return -1;
+	}
+
+	/** Temporal view IDs of the scene, in the order they were added. */
+	public synchronized int[] getViews(int s) {
+		if (packed) return Arrays.copyOfRange(viewT, viewStart[s], viewStart[s + 1]);
+		int cnt = 0;
+		for (int v = firstView[s]; v >= 0; v = viewNext[v]) cnt++;
+		int[] ret = new int[cnt];
+		cnt = 0;
+		for (int v = firstView[s]; v >= 0; v = viewNext[v]) ret[cnt++] = viewT[v];
+		return ret;
+	}
+
+	/** NaN if the view is unknown or its gsd was not stored, e.g. in an old TOC file. */
+	public synchronized double getGsd(int s, int t) {
+		int v = findView(s, t);
+		return v < 0 ? Double.NaN : viewGsd[v];
+	}
+
+	/** Boxes of a view as {ID, category ordinal, x, y, w, h} records. */
+	public synchronized int[] getBoxes(int s, int t) {
+		int v = findView(s, t);
+		if (v < 0) return new int[0];
+		int cnt = 0;
+		for (int b = viewFirstBox[v]; b >= 0; b = boxNext[b]) cnt++;
+		int[] ret = new int[6 * cnt];
+		int i = 0;
+		for (int b = viewFirstBox[v]; b >= 0; b = boxNext[b]) {
+			ret[i++] = boxId[b];
+			ret[i++] = boxCat[b];
+			System.arraycopy(boxRect, 4 * b, ret, i, 4);
+			i += 4;
+		}
+		return ret;
+	}
+
+	/** The n-th scene in the order of scene IDs. */
+	public synchronized int getSorted(int i) {
+		if (sortedOrder == null) sort();
+		return sortedOrder[i];
+	}
+
+	private void sort() {
+		Integer[] order = new Integer[n];
+		for (int s = 0; s < n; s++) order[s] = s;
+		Arrays.sort(order, new java.util.Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return compareIds(a, b);
+			}
+		});
+		sortedOrder = new int[n];
+		for (int i = 0; i < n; i++) sortedOrder[i] = order[i];
+	}
+
+	/**
+	 * Sorted positions [from, to) of the scenes whose ID starts with prefix, found by binary search
+	 * over the IDs in sorted order.
+	 */
+	public synchronized int[] getPrefixRange(String prefix) {
+		if (sortedOrder == null) sort();
+		return new int[] {search(prefix, false), search(prefix, true)};
+	}
+
+	// First sorted position whose ID is not before the prefix range, or with upper, not in it.
+	private int search(String prefix, boolean upper) {
+		int lo = 0;
+		int hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = comparePrefix(sortedOrder[mid], prefix);
+			if (c < 0 || (upper && c == 0)) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	// <0 if the ID sorts before the IDs starting with prefix, 0 if it starts with it, >0 if after
+	private int comparePrefix(int s, String prefix) {
+		int len = Math.min(idLen[s], prefix.length());
+		for (int i = 0; i < len; i++) {
+			char c = idPool[idStart[s] + i];
+			if (c != prefix.charAt(i)) return c - prefix.charAt(i);
+		}
+		return idLen[s] < prefix.length() ? -1 : 0;
+	}
+
+	// same order as String.compareTo() of the IDs
+	private int compareIds(int a, int b) {
+		int lenA = idLen[a];
+		int lenB = idLen[b];
+		int len = Math.min(lenA, lenB);
+		for (int i = 0; i < len; i++) {
+			char ca = idPool[idStart[a] + i];
+			char cb = idPool[idStart[b] + i];
+			if (ca != cb) return ca - cb;
+		}
+		return lenA - lenB;
+	}
+
+	public synchronized boolean isError(int s) {
+		return errors.get(s);
+	}
+
+	public synchronized void setError(int s, String guess) {
+		errors.set(s);
+		guesses.put(s, guess);
+	}
+
+	/** The wrong guess of an error scene, or null. */
+	public synchronized String getGuess(int s) {
+		return guesses.get(s);
+	}
+
+	public synchronized String getDiff(int s) {
+		return diffs.get(s);
+	}
+
+	public synchronized void setDiff(int s, String diff) {
+		diffs.put(s, diff);
+	}
+}
@@ -0,0 +1,249 @@
+package visualizer;
+
+import static visualizer.Utils.f;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Score breakdowns over meta data dimensions (country, gsd, cloud cover, ...). Every box gets a
+ * bucket ordinal per dimension when its meta data is read, then TP/FP/FN counts of all dimensions
+ * are collected in a single pass over the boxes into dense [bucket][category] arrays.
+ */
+public class ScoreCube {
+
+	public enum Dimension {
+		COUNTRY("country") {
+			@Override
+			String bucket(MetaData md) {
+				return md.country_code == null || md.country_code.isEmpty() ? "?" : md.country_code;
+			}
+		},
+		GSD("gsd", new double[] {0.5, 1, 1.5, 2, 3}, "m") {
+			@Override
+			String bucket(MetaData md) {
+				return range(md.gsd);
+			}
+		},
+		CLOUD("cloud", new double[] {1, 10, 25, 50}, "%") {
+			@Override
+			String bucket(MetaData md) {
+				return range(md.cloud_cover);
+			}
+		},
+		NADIR("nadir", new double[] {10, 20, 30, 40}, "deg") {
+			@Override
+			String bucket(MetaData md) {
+				return range(md.off_nadir_angle_dbl);
+			}
+		},
+		YEAR("year") {
+			@Override
+			String bucket(MetaData md) {
+				return md.timestamp == null || md.timestamp.length() < 4 ? "?" : md.timestamp.substring(0, 4);
+			}
+		};
+
+		public final String name;
+		private double[] edges; // null for dimensions with free text values
+		private String[] labels;
+
+		Dimension(String name) {
+			this.name = name;
+		}
+
+		Dimension(String name, double[] edges, String unit) {
+			this.name = name;
+			this.edges = edges;
+			labels = new String[edges.length + 1];
+			labels[0] = "<" + f(edges[0]) + unit;
+			for (int i = 1; i < edges.length; i++) labels[i] = f(edges[i-1]) + "-" + f(edges[i]) + unit;
+			labels[edges.length] = ">=" + f(edges[edges.length - 1]) + unit;
+		}
+
+		abstract String bucket(MetaData md);
+
+		String range(double v) {
+			int i = 0;
+			while (i < edges.length && v >= edges[i]) i++;
+			return labels[i];
+		}
+
+		public static Dimension parse(String s) {
+			for (Dimension d: values()) {
+				if (d.name.equals(s)) return d;
+			}
+			return null;
+		}
+	}
+
+	private Dimension[] dims;
+	private String[] categories;
+	private Map<String, Integer> categoryToOrdinal = new HashMap<>();
+	private Map<String, Double> categoryWeights;
+	private List<Map<String, Integer>> bucketOrdinals = new ArrayList<>(); // per dimension: label -> ordinal
+	private Map<Integer, int[]> boxIdToBuckets = new HashMap<>();
+	private int[][] tp, fp, fn; // per dimension: [bucket * category count + category]
+
+	public ScoreCube(Dimension[] dims, String[] categories, Map<String, Double> categoryWeights) {
+		this.dims = dims;
+		this.categories = categories;
+		this.categoryWeights = categoryWeights;
+		for (int i = 0; i < categories.length; i++) categoryToOrdinal.put(categories[i], i);
+		for (Dimension d: dims) {
+			Map<String, Integer> ordinals = new LinkedHashMap<>();
+			if (d.labels != null) {
+				for (String label: d.labels) ordinals.put(label, ordinals.size());
+			}
+			bucketOrdinals.add(ordinals);
+		}
+	}
+
+	public void addImage(MetaData md) {
+		int[] buckets = new int[dims.length];
+		for (int d = 0; d < dims.length; d++) {
+			Map<String, Integer> ordinals = bucketOrdinals.get(d);
+			String label = dims[d].bucket(md);
+			Integer ord = ordinals.get(label);
+			if (ord == null) {
+				ord = ordinals.size();
+				ordinals.put(label, ord);
+			}
+			buckets[d] = ord;
+		}
+		for (FmowVisualizer.Box b: md.bounding_boxes) {
+			boxIdToBuckets.put(b.ID, buckets);
+		}
+	}
+
+	/**
+	 * Collects the counts of all dimensions in one pass. Categories are expected to be already
+	 * unified (no aliases), boxes without meta data or without a guess are skipped.
+	 */
+	public void count(Map<Integer, String> boxIdToCategory, Map<Integer, String> boxIdToGuess) {
+		int nCat = categories.length;
+		tp = new int[dims.length][];
+		fp = new int[dims.length][];
+		fn = new int[dims.length][];
+		for (int d = 0; d < dims.length; d++) {
+			int size = bucketOrdinals.get(d).size() * nCat;
+			tp[d] = new int[size];
+			fp[d] = new int[size];
+			fn[d] = new int[size];
+		}
+		for (int boxId: boxIdToCategory.keySet()) {
+			int[] buckets = boxIdToBuckets.get(boxId);
+			String guess = boxIdToGuess.get(boxId);
+			if (buckets == null || guess == null) continue;
+			Integer truthOrd = categoryToOrdinal.get(boxIdToCategory.get(boxId));
+			Integer guessOrd = categoryToOrdinal.get(guess);
+			if (truthOrd == null || guessOrd == null) continue;
+			for (int d = 0; d < dims.length; d++) {
+				int base = buckets[d] * nCat;
+				if (truthOrd.intValue() == guessOrd.intValue()) {
+					tp[d][base + truthOrd]++;
+				}
+				else {
+					fn[d][base + truthOrd]++;
+					fp[d][base + guessOrd]++;
+				}
+			}
+		}
+	}
+
+	private String[] getSortedBuckets(int d) {
+		String[] labels = bucketOrdinals.get(d).keySet().toArray(new String[0]);
+		if (dims[d].labels == null) Arrays.sort(labels); // ranges are already in natural order
+		return labels;
+	}
+
+	// weighted F-score of a bucket, the same way as the overall score is calculated
+	private double getFScore(int d, int bucket, int[] boxCount) {
+		int nCat = categories.length;
+		double fSum = 0;
+		double wSum = 0;
+		for (int c = 0; c < nCat; c++) {
+			int i = bucket * nCat + c;
+			int tpc = tp[d][i], fpc = fp[d][i], fnc = fn[d][i];
+			if (tpc + fpc + fnc == 0) continue;
+			boxCount[0] += tpc + fnc;
+			double precision = tpc + fpc > 0 ? (double)tpc / (tpc + fpc) : 0;
+			double recall = tpc + fnc > 0 ? (double)tpc / (tpc + fnc) : 0;
+			double fScore = precision + recall > 0 ? 2 * precision * recall / (precision + recall) : 0;
+			double w = categoryWeights.get(categories[c]);
+			fSum += fScore * w;
+			wSum += w;
+		}
+		return wSum > 0 ? fSum / wSum : 0;
+	}
+
+	public String getText() {
+		StringBuilder sb = new StringBuilder();
+		for (int d = 0; d < dims.length; d++) {
+			sb.append("\nF-score by ").append(dims[d].name).append("\n");
+			sb.append("  ").append(pad("--" + dims[d].name + "--", 16)).append("F-score; boxes\n");
+			Map<String, Integer> ordinals = bucketOrdinals.get(d);
+			for (String label: getSortedBuckets(d)) {
+				int[] boxCount = new int[1];
+				double fScore = getFScore(d, ordinals.get(label), boxCount);
+				if (boxCount[0] == 0) continue;
+				sb.append("  ").append(pad(label, 16)).append(f(fScore)).append("; ").append(boxCount[0]).append("\n");
+			}
+		}
+		return sb.toString();
+	}
+
+	// one line per non empty dimension / bucket / category cell
+	public void writeCsv(File file) throws IOException {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+		out.println("dimension,bucket,category,tp,fp,fn");
+		int nCat = categories.length;
+		for (int d = 0; d < dims.length; d++) {
+			Map<String, Integer> ordinals = bucketOrdinals.get(d);
+			for (String label: getSortedBuckets(d)) {
+				int base = ordinals.get(label) * nCat;
+				for (int c = 0; c < nCat; c++) {
+					int i = base + c;
+					if (tp[d][i] + fp[d][i] + fn[d][i] == 0) continue;
+					out.println(dims[d].name + "," + label + "," + categories[c] + ","
+							+ tp[d][i] + "," + fp[d][i] + "," + fn[d][i]);
+				}
+			}
+		}
+		out.close();
+	}
+
+	public static Dimension[] parseDimensions(String list) {
+		List<Dimension> ret = new ArrayList<>();
+		for (String s: list.split(",")) {
+			Dimension d = Dimension.parse(s.trim());
+			if (d == null) return null;
+			ret.add(d);
+		}
+		return ret.toArray(new Dimension[0]);
+	}
+
+	private static String pad(String s, int len) {
+		if (s.length() > len-1) s = s.substring(0, len-1);
+		StringBuilder sb = new StringBuilder(s);
+		while (sb.length() < len) sb.append(' ');
+		return sb.toString();
+	}
+
+	public static List<String> getDimensionNames() {
+		List<String> ret = new ArrayList<>();
+		for (Dimension d: Dimension.values()) ret.add(d.name);
+		return Collections.unmodifiableList(ret);
+	}
+}
@@ -0,0 +1,219 @@
+package visualizer;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A solution file held in primitive arrays: box IDs sorted ascending and the predicted category
+ * ordinals in the same order. Used where millions of predictions have to be merged quickly.
+ *
+ * Besides the text format of id,category lines a solution can be stored in a compact binary
+ * format, where it needs no parsing:
+ *   int magic, int category count, [UTF category]+, int box count,
+ *   varint box IDs (the first one zigzag encoded, then the differences to the previous ID),
+ *   byte[box count] category ordinals in the file's own category list.
+ * As IDs are sorted and unique, converting text to binary and back keeps every prediction, but
+ * not the order of the lines, comments, or earlier lines of a repeated ID.
+ */
+public class Solution {
+	private static final int MAGIC = 0x46534231; // FSB1
+
+	public int[] ids;
+	public byte[] cats;
+
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Reads a solution file, binary or text of id,category lines. Lines are skipped as isSkipped()
+	 * says, the others are checked by parseLine(). If an ID is listed more than once then the last
+	 * line wins.
+	 */
+	public static Solution read(String path, Map<String, Integer> categoryToOrdinal) throws IOException {
+		if (isBinary(path)) return readBinary(path, categoryToOrdinal);
+		int n = 0;
+		int[] ids = new int[1 << 16];
+		byte[] cats = new byte[1 << 16];
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8), 1 << 16);
+		try {
+			int lineNo = 0;
+			while (true) {
+				String line = in.readLine();
+				if (line == null) break;
+				lineNo++;
+				if (isSkipped(line)) continue;
+				long parsed = parseLine(line, lineNo, categoryToOrdinal);
+				if (n == ids.length) {
+					ids = Arrays.copyOf(ids, n * 2);
+					cats = Arrays.copyOf(cats, n * 2);
+				}
+				ids[n] = (int) (parsed >> 32);
+				cats[n] = (byte) parsed;
+				n++;
+			}
+		}
+		finally {
+			in.close();
+		}
+		return sorted(ids, cats, n);
+	}
+
+	// Blank lines, and lines whose first non-blank character is #, are not predictions.
+	public static boolean isSkipped(String line) {
+		line = line.trim();
+		return line.isEmpty() || line.startsWith("#");
+	}
+
+	/**
+	 * Parses an id,category line of a text solution, returns (box ID << 32) | category ordinal.
+	 * Category names are mapped to ordinals by the given dictionary, an unknown category is an error.
+	 */
+	public static long parseLine(String line, int lineNo, Map<String, Integer> categoryToOrdinal) throws IOException {
+		int comma = line.indexOf(',');
+		if (comma < 0 || line.indexOf(',', comma + 1) >= 0) {
+			throw new IOException("Wrong format at line " + lineNo + " : " + line);
+		}
+		String cat = line.substring(comma + 1).trim();
+		Integer ord = categoryToOrdinal.get(cat);
+		if (ord == null) {
+			throw new IOException("Unknown category at line " + lineNo + " : " + cat);
+		}
+		int id;
+		try {
+			id = Integer.parseInt(line.substring(0, comma).trim());
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("Wrong format at line " + lineNo + " : " + line);
+		}
+		return ((long) id << 32) | ord;
+	}
+
+	// Sorts by ID keeping the input order of equal IDs, then keeps only the last one of each ID.
+	public static Solution sorted(int[] ids, byte[] cats, int n) {
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) keys[i] = ((long) ids[i] << 32) | i;
+		Arrays.sort(keys);
+		Solution s = new Solution();
+		s.ids = new int[n];
+		s.cats = new byte[n];
+		int m = 0;
+		for (int k = 0; k < n; k++) {
+			int id = (int) (keys[k] >> 32);
+			int index = (int) keys[k];
+			if (m > 0 && s.ids[m - 1] == id) m--; // a later line of the same ID
+			s.ids[m] = id;
+			s.cats[m] = cats[index];
+			m++;
+		}
+		if (m < n) {
+			s.ids = Arrays.copyOf(s.ids, m);
+			s.cats = Arrays.copyOf(s.cats, m);
+		}
+		return s;
+	}
+
+	public static boolean isBinary(String path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(path))) {
+			return in.available() >= 4 && in.readInt() == MAGIC;
+		}
+	}
+
+	/**
+	 * Reads a binary solution file, its categories are mapped to ordinals by the given dictionary.
+	 */
+	public static Solution readBinary(String path, Map<String, Integer> categoryToOrdinal) throws IOException {
+		byte[] data = Files.readAllBytes(Paths.get(path));
+		InputStream bin = new ByteArrayInputStream(data);
+		DataInputStream in = new DataInputStream(bin);
+		Solution s = new Solution();
+		try {
+			if (in.readInt() != MAGIC) throw new IOException(path + " is not a binary solution file");
+			String[] fileCats = new String[in.readInt()];
+			int[] map = new int[fileCats.length]; // -1 for an unknown category, an error only if it's used
+			for (int c = 0; c < map.length; c++) {
+				fileCats[c] = in.readUTF();
+				Integer ord = categoryToOrdinal.get(fileCats[c]);
+				map[c] = ord == null ? -1 : ord;
+			}
+			int n = in.readInt();
+			int pos = data.length - bin.available();
+			s.ids = new int[n];
+			s.cats = new byte[n];
+			int id = 0;
+			for (int i = 0; i < n; i++) {
+				int v = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = data[pos++];
+					v |= (b & 0x7f) << shift;
+					shift += 7;
+				} while (b < 0);
+				id = i == 0 ? (v >>> 1) ^ -(v & 1) : id + v;
+				s.ids[i] = id;
+			}
+			for (int i = 0; i < n; i++) {
+				int c = data[pos++] & 0xff;
+				if (map[c] < 0) throw new IOException("Unknown category in " + path + " : " + fileCats[c]);
+				s.cats[i] = (byte) map[c];
+			}
+		}
+		catch (EOFException | ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+			throw new IOException("Truncated binary solution file: " + path);
+		}
+		return s;
+	}
+
+	/**
+	 * Writes the solution in binary format, cats are ordinals in categoryNames.
+	 */
+	public void writeBinary(String path, String[] categoryNames) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(categoryNames.length);
+			for (String cat: categoryNames) out.writeUTF(cat);
+			out.writeInt(ids.length);
+			for (int i = 0; i < ids.length; i++) {
+				int v = i == 0 ? (ids[0] << 1) ^ (ids[0] >> 31) : ids[i] - ids[i - 1];
+				while ((v & ~0x7f) != 0) {
+					out.writeByte((v & 0x7f) | 0x80);
+					v >>>= 7;
+				}
+				out.writeByte(v);
+			}
+			out.write(cats);
+		}
+	}
+
+	/**
+	 * Writes the solution as id,category lines in ID order, cats are ordinals in categoryNames.
+	 */
+	public void writeText(String path, String[] categoryNames) throws IOException {
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8), 1 << 16)) {
+			for (int i = 0; i < ids.length; i++) {
+				out.write(Integer.toString(ids[i]));
+				out.write(',');
+				out.write(categoryNames[cats[i]]);
+				out.write('\n');
+			}
+		}
+	}
+}
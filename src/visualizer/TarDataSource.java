@@ -0,0 +1,268 @@
+package visualizer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Data set stored in one or more (uncompressed) tar shards. The headers of each shard are walked
+ * once to build an index of member offsets, which is cached next to the shard as shard.tar.idx.
+ * Members are then read with positional reads, without scanning the archive again.
+ */
+public class TarDataSource extends DataSource {
+	private static final int BLOCK = 512;
+	private static final int INDEX_MAGIC = 0x54494458; // TIDX
+
+	private File[] shards;
+	private FileChannel[] channels;
+	private Map<String, long[]> entries = new HashMap<>(); // path -> {shard, offset, size}
+	private Map<String, Set<String>> dirToChildren = new HashMap<>();
+
+	public TarDataSource(File[] shards) throws IOException {
+		this.shards = shards;
+		channels = new FileChannel[shards.length];
+		dirToChildren.put("", new LinkedHashSet<String>());
+		for (int i = 0; i < shards.length; i++) {
+			if (!shards[i].exists()) throw new FileNotFoundException(shards[i].getAbsolutePath());
+			channels[i] = new RandomAccessFile(shards[i], "r").getChannel();
+			File idx = new File(shards[i].getPath() + ".idx");
+			if (!readIndex(i, idx)) {
+				walkHeaders(i);
+				writeIndex(i, idx);
+			}
+		}
+	}
+
+	private void addEntry(String path, int shard, long offset, long size) {
+		if (path.startsWith("./")) path = path.substring(2);
+		if (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+		if (path.isEmpty()) return;
+		if (size >= 0) entries.put(path, new long[] {shard, offset, size});
+		else if (!dirToChildren.containsKey(path)) dirToChildren.put(path, new LinkedHashSet<String>());
+		// register the path in all of its parent folders, tar files don't need to list folders
+		while (true) {
+			int pos = path.lastIndexOf('/');
+			String parent = pos < 0 ? "" : path.substring(0, pos);
+			Set<String> children = dirToChildren.get(parent);
+			boolean isNew = children == null;
+			if (isNew) {
+				children = new LinkedHashSet<>();
+				dirToChildren.put(parent, children);
+			}
+			children.add(path.substring(pos + 1));
+			if (!isNew || pos < 0) break;
+			path = parent;
+		}
+	}
+
+	private void walkHeaders(int shard) throws IOException {
+		FileChannel ch = channels[shard];
+		long len = ch.size();
+		long pos = 0;
+		String longName = null;
+		ByteBuffer header = ByteBuffer.allocate(BLOCK);
+		while (pos + BLOCK <= len) {
+			header.clear();
+			readFully(ch, header, pos);
+			byte[] h = header.array();
+			if (h[0] == 0) break; // end of archive
+			long size = parseSize(h);
+			char type = (char) h[156];
+			long dataStart = pos + BLOCK;
+			if (type == 'L' || type == 'x') {
+				// GNU long name or pax extended header, the real name applies to the next entry
+				ByteBuffer data = ByteBuffer.allocate((int) size);
+				readFully(ch, data, dataStart);
+				String s = new String(data.array(), StandardCharsets.UTF_8);
+				if (type == 'L') longName = s.trim();
+				else longName = parsePaxPath(s, longName);
+			}
+			else {
+				String name = longName;
+				if (name == null) {
+					name = cString(h, 0, 100);
+					String prefix = cString(h, 345, 155);
+					if (!prefix.isEmpty() && new String(h, 257, 5, StandardCharsets.US_ASCII).equals("ustar")) {
+						name = prefix + "/" + name;
+					}
+				}
+				longName = null;
+				if (type == '5') addEntry(name, shard, 0, -1);
+				else if (type == '0' || type == 0) addEntry(name, shard, dataStart, size);
+			}
+			pos = dataStart + (size + BLOCK - 1) / BLOCK * BLOCK;
+		}
+	}
+
+	private static String parsePaxPath(String records, String current) {
+		for (String rec: records.split("\n")) {
+			int sp = rec.indexOf(' ');
+			if (sp > 0 && rec.startsWith("path=", sp + 1)) return rec.substring(sp + 6);
+		}
+		return current;
+	}
+
+	private static long parseSize(byte[] h) {
+		if ((h[124] & 0x80) != 0) { // base-256 encoding for large members
+			long v = 0;
+			for (int i = 125; i < 136; i++) v = (v << 8) | (h[i] & 0xff);
+			return v;
+		}
+		String s = cString(h, 124, 12).trim();
+		return s.isEmpty() ? 0 : Long.parseLong(s, 8);
+	}
+
+	private static String cString(byte[] b, int from, int len) {
+		int end = from;
+		while (end < from + len && b[end] != 0) end++;
+		return new String(b, from, end - from, StandardCharsets.UTF_8);
+	}
+
+	private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining()) {
+			int n = ch.read(buf, pos + buf.position());
+			if (n < 0) throw new IOException("Unexpected end of tar file");
+		}
+	}
+
+	private boolean readIndex(int shard, File idx) {
+		if (!idx.exists()) return false;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(idx)))) {
+			if (in.readInt() != INDEX_MAGIC) return false;
+			if (in.readLong() != shards[shard].length() || in.readLong() != shards[shard].lastModified()) {
+				return false; // shard changed since the index was written
+			}
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String path = in.readUTF();
+				long offset = in.readLong();
+				long size = in.readLong();
+				addEntry(path, shard, offset, size);
+			}
+			return true;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	private void writeIndex(int shard, File idx) {
+		List<String> paths = new ArrayList<>();
+		for (String path: entries.keySet()) {
+			if (entries.get(path)[0] == shard) paths.add(path);
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(idx)))) {
+			out.writeInt(INDEX_MAGIC);
+			out.writeLong(shards[shard].length());
+			out.writeLong(shards[shard].lastModified());
+			out.writeInt(paths.size());
+			for (String path: paths) {
+				long[] e = entries.get(path);
+				out.writeUTF(path);
+				out.writeLong(e[1]);
+				out.writeLong(e[2]);
+			}
+		}
+		catch (IOException e) {
+			// not fatal, the headers will be walked again next time
+			System.out.println("Can't write tar index " + idx.getAbsolutePath());
+		}
+	}
+
+	@Override
+	public DirectoryStream<String> list(String dir) throws IOException {
+		final Set<String> children = dirToChildren.get(dir);
+		if (children == null) throw new FileNotFoundException(dir);
+		return new DirectoryStream<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return children.iterator();
+			}
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	@Override
+	public boolean isDirectory(String path) {
+		return dirToChildren.containsKey(path);
+	}
+
+	@Override
+	public boolean exists(String path) {
+		return entries.containsKey(path) || dirToChildren.containsKey(path);
+	}
+
+	@Override
+	public InputStream open(String path) throws IOException {
+		long[] e = entries.get(path);
+		if (e == null) throw new FileNotFoundException(path);
+		return new BufferedInputStream(new RegionInputStream(channels[(int) e[0]], e[1], e[2]), 64 * 1024);
+	}
+
+	@Override
+	public File getSideFile(String name) {
+		return new File(shards[0].getPath() + "." + name);
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (FileChannel ch: channels) {
+			if (ch != null) ch.close();
+		}
+	}
+
+	// Reads a part of a file with positional reads, so streams of the same shard don't interfere.
+	private static class RegionInputStream extends InputStream {
+		private FileChannel ch;
+		private long pos;
+		private long end;
+
+		public RegionInputStream(FileChannel ch, long start, long size) {
+			this.ch = ch;
+			this.pos = start;
+			this.end = start + size;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return n < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (pos >= end) return -1;
+			len = (int) Math.min(len, end - pos);
+			int n = ch.read(ByteBuffer.wrap(b, off, len), pos);
+			if (n > 0) pos += n;
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(Integer.MAX_VALUE, end - pos);
+		}
+	}
+}
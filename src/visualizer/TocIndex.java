@@ -0,0 +1,134 @@
+package visualizer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Per category offset index of the TOC file. The TOC lines are written grouped by category,
+ * this index stores where each category's run starts and the byte offset of every line, so that
+ * a limited number of scenes per category can be read by seeking directly to them.
+ *
+ * File layout:
+ *   int magic, int category count, [UTF category, int first line index, int line count]+,
+ *   long[line count + 1] line offsets (the last one is the TOC file length).
+ */
+public class TocIndex {
+	private static final int MAGIC = 0x544f4331; // TOC1
+
+	private Map<String, int[]> categoryToRange = new LinkedHashMap<>(); // category -> {first, count}
+	private long tableStart;
+	private RandomAccessFile idxFile;
+	private FileChannel tocChannel;
+	private ByteBuffer offsetPair = ByteBuffer.allocate(16);
+
+	public static void write(File f, Map<String, int[]> categoryToRange, long[] lineOffsets) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		out.writeInt(MAGIC);
+		out.writeInt(categoryToRange.size());
+		for (String cat: categoryToRange.keySet()) {
+			int[] range = categoryToRange.get(cat);
+			out.writeUTF(cat);
+			out.writeInt(range[0]);
+			out.writeInt(range[1]);
+		}
+		for (long offset: lineOffsets) out.writeLong(offset);
+		out.close();
+	}
+
+	public TocIndex(File idx, File toc) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(idx)));
+		try {
+			if (in.readInt() != MAGIC) throw new IOException("Not a TOC index file: " + idx.getAbsolutePath());
+			int n = in.readInt();
+			long pos = 8;
+			for (int i = 0; i < n; i++) {
+				String cat = in.readUTF();
+				int first = in.readInt();
+				int count = in.readInt();
+				categoryToRange.put(cat, new int[] {first, count});
+				pos += 2 + cat.getBytes(StandardCharsets.UTF_8).length + 8;
+			}
+			tableStart = pos;
+		}
+		finally {
+			in.close();
+		}
+		idxFile = new RandomAccessFile(idx, "r");
+		tocChannel = new RandomAccessFile(toc, "r").getChannel();
+	}
+
+	public Iterable<String> getCategories() {
+		return categoryToRange.keySet();
+	}
+
+	/**
+	 * Reads at most n lines of the given category whose scene ID matches the filter (if any).
+	 * If rnd is null then the first lines are used, otherwise a random sample is drawn without
+	 * replacement. Only the lines actually visited are read from disk.
+	 */
+	public void readLines(String category, int n, Random rnd, Pattern filter, LineHandler handler) throws IOException {
+		int[] range = categoryToRange.get(category);
+		if (range == null) return;
+		int count = range[1];
+		Map<Integer, Integer> swaps = new HashMap<>(); // lazy Fisher-Yates shuffle
+		int found = 0;
+		for (int i = 0; i < count && found < n; i++) {
+			int index = i;
+			if (rnd != null) {
+				int j = i + rnd.nextInt(count - i);
+				Integer vj = swaps.get(j);
+				Integer vi = swaps.get(i);
+				index = vj == null ? j : vj;
+				swaps.put(j, vi == null ? i : vi);
+			}
+			String line = readLine(range[0] + index);
+			if (filter != null) {
+				int tab = line.indexOf('\t');
+				String sceneId = tab < 0 ? line : line.substring(0, tab);
+				if (!filter.matcher(sceneId).find()) continue;
+			}
+			handler.line(line);
+			found++;
+		}
+	}
+
+	// The line of the TOC file with the given index, without the line break.
+	public String readLine(int lineIndex) throws IOException {
+		// start and end offsets in one read
+		idxFile.seek(tableStart + 8L * lineIndex);
+		idxFile.readFully(offsetPair.array());
+		long start = offsetPair.getLong(0);
+		long end = offsetPair.getLong(8);
+		ByteBuffer buf = ByteBuffer.allocate((int)(end - start));
+		while (buf.hasRemaining()) {
+			if (tocChannel.read(buf, start + buf.position()) < 0) break;
+		}
+		String line = new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8);
+		if (line.endsWith("\n")) line = line.substring(0, line.length() - 1);
+		return line;
+	}
+
+	public void close() throws IOException {
+		idxFile.close();
+		tocChannel.close();
+	}
+
+	public interface LineHandler {
+		public void line(String line);
+	}
+}